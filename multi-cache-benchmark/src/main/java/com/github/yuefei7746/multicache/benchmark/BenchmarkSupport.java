@@ -0,0 +1,32 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheAutoConfiguration;
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.MultiCacheManager;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+/**
+ * 按自动配置的方式组装基准测试用到的组件
+ *
+ * @author yuefei7746
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    public static RedisTemplate<Object, Object> redisTemplate(MultiCacheProperty property,
+                                                              RedisConnectionFactory connectionFactory) {
+        MultiCacheAutoConfiguration configuration = new MultiCacheAutoConfiguration(property, connectionFactory);
+        return configuration.redisTemplate(configuration.multiCacheValueSerializer());
+    }
+
+    public static MultiCacheManager cacheManager(MultiCacheProperty property,
+                                                 RedisConnectionFactory connectionFactory) {
+        MultiCacheManager cacheManager = new MultiCacheManager(property, redisTemplate(property, connectionFactory));
+        cacheManager.afterPropertiesSet();
+        return cacheManager;
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.MultiCache;
+import com.github.yuefei7746.multicache.support.MultiCacheManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 清空包含大量 key 的缓存：调用线程的耗时，以及后台分批 SCAN 与 UNLINK 删除全部 key 的总耗时
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ClearBenchmark {
+
+    private static final byte[] VALUE = "\"value\"".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1000000"})
+    public int keys;
+
+    @Param({"100", "1000"})
+    public int clearBatchSize;
+
+    @Param({"200"})
+    public long redisLatencyMicros;
+
+    private InMemoryRedisConnectionFactory connectionFactory;
+
+    private MultiCacheManager cacheManager;
+
+    private MultiCache cache;
+
+    private CompletableFuture<Long> pending;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        property.getRedis().setClearBatchSize(clearBatchSize);
+        connectionFactory =
+                new InMemoryRedisConnectionFactory(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(redisLatencyMicros)));
+        cacheManager = BenchmarkSupport.cacheManager(property, connectionFactory);
+        cache = (MultiCache) cacheManager.getCache("benchmark");
+    }
+
+    @Setup(Level.Invocation)
+    public void populate() {
+        connectionFactory.populate("benchmark::", keys, VALUE);
+    }
+
+    @Benchmark
+    public void callerLatency() {
+        pending = cache.clearAsync();
+    }
+
+    @Benchmark
+    public long completion() {
+        pending = cache.clearAsync();
+        return pending.join();
+    }
+
+    @TearDown(Level.Invocation)
+    public void awaitClear() {
+        long unlinked = pending.join();
+        if (unlinked != keys || connectionFactory.size() != 0) {
+            throw new IllegalStateException("unlinked " + unlinked + " keys, " + connectionFactory.size() + " left");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cacheManager.destroy();
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.MultiCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * put、evict 与读取同时作用于同一批 key 时各自的耗时分布
+ * <p>
+ * {@code keySpace=16} 时所有线程集中在少数热点 key 上，{@code keySpace=65536} 时几乎没有冲突，可以作为对照组。
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentionBenchmark {
+
+    @Param({"16", "65536"})
+    public int keySpace;
+
+    @Param({"200"})
+    public long redisLatencyMicros;
+
+    private MultiCache cache;
+
+    @Setup
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        property.getCaffeine().setMaximumSize(keySpace);
+        InMemoryRedisConnectionFactory connectionFactory =
+                new InMemoryRedisConnectionFactory(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(redisLatencyMicros)));
+        cache = new MultiCache("benchmark", BenchmarkSupport.redisTemplate(property, connectionFactory), property);
+        for (int i = 0; i < keySpace; i++) {
+            cache.put(i, "value-" + i);
+        }
+    }
+
+    private int nextKey() {
+        return ThreadLocalRandom.current().nextInt(keySpace);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void put() {
+        cache.put(nextKey(), "value");
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void evict() {
+        cache.evict(nextKey());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public Object get() {
+        return cache.get(nextKey(), () -> "loaded");
+    }
+
+}
@@ -0,0 +1,332 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.data.redis.core.ScanCursor;
+import org.springframework.data.redis.core.ScanIteration;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内的 Redis 替身，只实现 MultiCache 用到的命令
+ * <p>
+ * 每次往返（单条命令或一次 pipeline）都会按 {@code latency} 挂起调用线程，用来模拟网络与 Redis 的耗时。
+ *
+ * @author yuefei7746
+ */
+public class InMemoryRedisConnectionFactory implements RedisConnectionFactory {
+
+    private final ConcurrentMap<ByteBuffer, Entry> store = new ConcurrentHashMap<>();
+
+    private final long latencyNanos;
+
+    private final LongAdder roundTrips = new LongAdder();
+
+    private final LongAdder publishedBytes = new LongAdder();
+
+    private volatile Consumer<byte[]> subscriber;
+
+    public InMemoryRedisConnectionFactory(Duration latency) {
+        this.latencyNanos = latency.toNanos();
+    }
+
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    public long getPublishedBytes() {
+        return publishedBytes.sum();
+    }
+
+    /**
+     * 在发布线程中同步接收所有 topic 消息，忽略 channel
+     */
+    public void subscribe(Consumer<byte[]> subscriber) {
+        this.subscriber = subscriber;
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * 直接写入 {@code count} 个不过期的 key，不计入往返次数
+     */
+    public void populate(String keyPrefix, int count, byte[] value) {
+        for (int i = 0; i < count; i++) {
+            store.put(ByteBuffer.wrap((keyPrefix + i).getBytes(StandardCharsets.UTF_8)), new Entry(value, 0));
+        }
+    }
+
+    @Override
+    public RedisConnection getConnection() {
+        return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{RedisConnection.class}, new ConnectionHandler());
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        throw new UnsupportedOperationException("cluster is not supported");
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return true;
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        throw new UnsupportedOperationException("sentinel is not supported");
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return null;
+    }
+
+    private void roundTrip() {
+        roundTrips.increment();
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] value;
+
+        private final long expireAt;
+
+        private Entry(byte[] value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired(long now) {
+            return expireAt > 0 && expireAt <= now;
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+
+        private List<Object> pipelineResults;
+
+        private boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.endsWith("Commands") && method.getReturnType().isInstance(proxy)) {
+                return proxy;
+            }
+            switch (name) {
+                case "openPipeline":
+                    pipelineResults = new ArrayList<>();
+                    return null;
+                case "closePipeline":
+                    List<Object> results = pipelineResults;
+                    pipelineResults = null;
+                    roundTrip();
+                    return results;
+                case "isPipelined":
+                    return pipelineResults != null;
+                case "isQueueing":
+                    return false;
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getNativeConnection":
+                    return this;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "InMemoryRedisConnection";
+                default:
+            }
+
+            Object result = execute(name, args);
+            if (pipelineResults != null) {
+                pipelineResults.add(result);
+                return null;
+            }
+            roundTrip();
+            return result;
+        }
+
+        private Object execute(String name, Object[] args) {
+            switch (name) {
+                case "get":
+                    return get((byte[]) args[0]);
+                case "mGet":
+                    List<byte[]> values = new ArrayList<>();
+                    for (byte[] key : (byte[][]) args[0]) {
+                        values.add(get(key));
+                    }
+                    return values;
+                case "set":
+                    long expireAt = 0;
+                    if (args.length > 2 && !((Expiration) args[2]).isPersistent()) {
+                        expireAt = System.currentTimeMillis() + ((Expiration) args[2]).getExpirationTimeInMilliseconds();
+                    }
+                    put((byte[]) args[0], (byte[]) args[1], expireAt);
+                    return true;
+                case "pSetEx":
+                    put((byte[]) args[0], (byte[]) args[2], System.currentTimeMillis() + (long) args[1]);
+                    return true;
+                case "setEx":
+                    put((byte[]) args[0], (byte[]) args[2], System.currentTimeMillis() + (long) args[1] * 1000);
+                    return true;
+                case "del":
+                case "unlink":
+                    long removed = 0;
+                    for (byte[] key : (byte[][]) args[0]) {
+                        if (store.remove(ByteBuffer.wrap(key)) != null) {
+                            removed++;
+                        }
+                    }
+                    return removed;
+                case "pTtl":
+                    return pTtl((byte[]) args[0]);
+                case "setBit":
+                    return setBit((byte[]) args[0], (long) args[1], (boolean) args[2]);
+                case "scan":
+                    return new StoreScanCursor((ScanOptions) args[0]).open();
+                case "publish":
+                    byte[] message = (byte[]) args[1];
+                    publishedBytes.add(message.length);
+                    Consumer<byte[]> current = subscriber;
+                    if (current != null) {
+                        current.accept(message);
+                        return 1L;
+                    }
+                    return 0L;
+                default:
+                    throw new UnsupportedOperationException("command is not supported: " + name);
+            }
+        }
+
+        private byte[] get(byte[] key) {
+            ByteBuffer k = ByteBuffer.wrap(key);
+            Entry entry = store.get(k);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(System.currentTimeMillis())) {
+                store.remove(k, entry);
+                return null;
+            }
+            return entry.value;
+        }
+
+        /**
+         * 与 PTTL 相同：key 不存在时返回 -2，没有过期时间时返回 -1
+         */
+        private long pTtl(byte[] key) {
+            Entry entry = store.get(ByteBuffer.wrap(key));
+            long now = System.currentTimeMillis();
+            if (entry == null || entry.isExpired(now)) {
+                return -2;
+            }
+            return entry.expireAt == 0 ? -1 : entry.expireAt - now;
+        }
+
+        /**
+         * 与 SETBIT 相同：偏移量 n 对应第 n / 8 个字节中从高位数起的第 n % 8 位，位图按需扩展
+         *
+         * @return 原来的位
+         */
+        private boolean setBit(byte[] key, long offset, boolean value) {
+            int index = (int) (offset >>> 3);
+            int mask = 0x80 >>> (int) (offset & 7);
+            boolean[] previous = new boolean[1];
+            store.compute(ByteBuffer.wrap(key), (k, entry) -> {
+                Entry current = entry == null || entry.isExpired(System.currentTimeMillis())
+                        ? new Entry(new byte[0], 0) : entry;
+                byte[] updated = Arrays.copyOf(current.value, Math.max(current.value.length, index + 1));
+                previous[0] = (updated[index] & mask) != 0;
+                updated[index] = (byte) (value ? updated[index] | mask : updated[index] & ~mask);
+                return new Entry(updated, current.expireAt);
+            });
+            return previous[0];
+        }
+
+        private void put(byte[] key, byte[] value, long expireAt) {
+            store.put(ByteBuffer.wrap(key), new Entry(value, expireAt));
+        }
+    }
+
+    /**
+     * 与 Redis 的 SCAN 一样不保证看到遍历期间新增的 key，每次迭代检查 COUNT 个 key 并计一次往返
+     */
+    private class StoreScanCursor extends ScanCursor<byte[]> {
+
+        private final Iterator<ByteBuffer> keys = store.keySet().iterator();
+
+        private final Pattern pattern;
+
+        private final long count;
+
+        private StoreScanCursor(ScanOptions options) {
+            super(options);
+            this.pattern = options.getPattern() == null ? null : globToRegex(options.getPattern());
+            this.count = options.getCount() == null ? 10 : options.getCount();
+        }
+
+        @Override
+        protected ScanIteration<byte[]> doScan(long cursorId, ScanOptions options) {
+            roundTrip();
+            List<byte[]> items = new ArrayList<>();
+            for (long i = 0; i < count && keys.hasNext(); i++) {
+                ByteBuffer key = keys.next();
+                byte[] bytes = new byte[key.remaining()];
+                key.duplicate().get(bytes);
+                if (pattern == null || pattern.matcher(new String(bytes, StandardCharsets.UTF_8)).matches()) {
+                    items.add(bytes);
+                }
+            }
+            return new ScanIteration<>(keys.hasNext() ? cursorId + 1 : 0, items);
+        }
+    }
+
+    private static Pattern globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length()) {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            } else if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.MultiCache;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cache.interceptor.SimpleKey;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同类型的缓存 key 转换为 Redis key 的耗时
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeyConversionBenchmark {
+
+    public enum KeyType {
+
+        STRING("user:42"),
+
+        LONG(42L),
+
+        /**
+         * 多个参数的方法默认生成的 key
+         */
+        SIMPLE_KEY(new SimpleKey(42L, "zh_CN")),
+
+        /**
+         * 使用集合作为 key，逐个元素转换后拼接
+         */
+        LIST(Arrays.asList(42L, "zh_CN", 7)),
+
+        /**
+         * 自定义类型，重写了 toString
+         */
+        POJO(new UserKey(42L, "zh_CN"));
+
+        private final Object key;
+
+        KeyType(Object key) {
+            this.key = key;
+        }
+    }
+
+    @Param
+    public KeyType keyType;
+
+    private MultiCache cache;
+
+    private Object key;
+
+    @Setup
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        InMemoryRedisConnectionFactory connectionFactory = new InMemoryRedisConnectionFactory(Duration.ZERO);
+        cache = new MultiCache("benchmark", BenchmarkSupport.redisTemplate(property, connectionFactory), property);
+        key = keyType.key;
+    }
+
+    @Benchmark
+    public String createRedisKey() {
+        return cache.createRedisKey(key);
+    }
+
+    private static final class UserKey {
+
+        private final long userId;
+
+        private final String locale;
+
+        private UserKey(long userId, String locale) {
+            this.userId = userId;
+            this.locale = locale;
+        }
+
+        @Override
+        public String toString() {
+            return "UserKey{userId=" + userId + ", locale=" + locale + '}';
+        }
+    }
+
+}
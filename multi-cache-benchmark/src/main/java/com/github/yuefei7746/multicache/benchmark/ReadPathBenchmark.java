@@ -0,0 +1,73 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.MessageOrigin;
+import com.github.yuefei7746.multicache.support.MultiCache;
+import com.github.yuefei7746.multicache.support.TopicMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取路径：{@code l1Hit} 是本地缓存命中的吞吐量，{@code l1MissL2Hit} 是本地缓存失效后从 Redis 读取的耗时分布
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReadPathBenchmark {
+
+    private static final String CACHE_NAME = "benchmark";
+
+    /**
+     * 模拟其他节点发布的消息
+     */
+    private static final MessageOrigin ORIGIN = new MessageOrigin();
+
+    private static final int KEY_SPACE = 1 << 12;
+
+    @Param({"0", "200"})
+    public long redisLatencyMicros;
+
+    private MultiCache cache;
+
+    @Setup
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        property.getCaffeine().setMaximumSize(KEY_SPACE);
+        InMemoryRedisConnectionFactory connectionFactory =
+                new InMemoryRedisConnectionFactory(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(redisLatencyMicros)));
+        cache = new MultiCache(CACHE_NAME, BenchmarkSupport.redisTemplate(property, connectionFactory), property);
+        for (int i = 0; i < KEY_SPACE; i++) {
+            cache.put(i, "value-" + i);
+        }
+    }
+
+    private static int nextKey() {
+        return ThreadLocalRandom.current().nextInt(KEY_SPACE);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object l1Hit() {
+        return cache.get(nextKey());
+    }
+
+    /**
+     * 只失效当前节点的本地缓存，Redis 中的值保留
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object l1MissL2Hit() {
+        int key = nextKey();
+        cache.pullMessage(TopicMessage.create(ORIGIN, CACHE_NAME, key, 0));
+        return cache.get(key);
+    }
+
+}
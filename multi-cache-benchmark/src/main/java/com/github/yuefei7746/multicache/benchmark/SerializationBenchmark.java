@@ -0,0 +1,113 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheAutoConfiguration;
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.util.unit.DataSize;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同序列化格式与压缩配置下，缓存值与 topic 消息的编解码耗时及字节数
+ * <p>
+ * 附加计数器 {@code bytes} 与 {@code values} 相除即为每个值编码后的平均字节数。
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    @Param({"JSON", "SMILE"})
+    public MultiCacheProperty.SerializerType type;
+
+    @Param({"0", "512"})
+    public int compressThreshold;
+
+    @Param({"1", "20"})
+    public int products;
+
+    private RedisSerializer<Object> serializer;
+
+    private List<Product> value;
+
+    private byte[] encoded;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+
+        public long bytes;
+
+        public long values;
+    }
+
+    @Setup
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        property.getRedis().getSerializer().setType(type);
+        property.getRedis().getSerializer().setCompressThreshold(DataSize.ofBytes(compressThreshold));
+        serializer = new MultiCacheAutoConfiguration(property, new InMemoryRedisConnectionFactory(Duration.ZERO))
+                .multiCacheValueSerializer();
+
+        value = new ArrayList<>(products);
+        for (int i = 0; i < products; i++) {
+            value.add(new Product(i));
+        }
+        encoded = serializer.serialize(value);
+    }
+
+    @Benchmark
+    public byte[] encode(Size size) {
+        byte[] bytes = serializer.serialize(value);
+        size.bytes += bytes.length;
+        size.values++;
+        return bytes;
+    }
+
+    @Benchmark
+    public Object decode() {
+        return serializer.deserialize(encoded);
+    }
+
+    public static class Product {
+
+        private long id;
+
+        private String name;
+
+        private String description;
+
+        private BigDecimal price;
+
+        private int stock;
+
+        private boolean onSale;
+
+        private List<String> tags;
+
+        public Product() {
+        }
+
+        Product(long id) {
+            this.id = id;
+            this.name = "product-" + id;
+            this.description = "A mid-sized cached product entry used to compare value codecs, number " + id;
+            this.price = BigDecimal.valueOf(1999 + id, 2);
+            this.stock = (int) (id * 7 % 100);
+            this.onSale = id % 2 == 0;
+            this.tags = Arrays.asList("tag-a", "tag-b", "category-" + id % 5);
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.MultiCache;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段锁在不同线程数下的写入扩展性
+ * <p>
+ * {@code lockStripes=1} 相当于改造前整个缓存共用一把读写锁，可以作为对照组。
+ * 直接运行 {@link #main(String[])} 会依次以 1 到 64 个线程执行 {@code put}。
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StripedLockBenchmark {
+
+    private static final int KEY_SPACE = 1 << 16;
+
+    @Param({"1", "64"})
+    public int lockStripes;
+
+    @Param({"200"})
+    public long redisLatencyMicros;
+
+    private MultiCache cache;
+
+    @Setup
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        property.setLockStripes(lockStripes);
+        property.getCaffeine().setMaximumSize(KEY_SPACE);
+        InMemoryRedisConnectionFactory connectionFactory =
+                new InMemoryRedisConnectionFactory(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(redisLatencyMicros)));
+        cache = new MultiCache("benchmark", BenchmarkSupport.redisTemplate(property, connectionFactory), property);
+        for (int i = 0; i < KEY_SPACE; i++) {
+            cache.put(i, "value-" + i);
+        }
+    }
+
+    private static int nextKey() {
+        return ThreadLocalRandom.current().nextInt(KEY_SPACE);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void put() {
+        cache.put(nextKey(), "value");
+    }
+
+    /**
+     * 一个线程持续写入的同时，其他线程读取 L1 中已有的 key
+     */
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void writer() {
+        cache.put(nextKey(), "value");
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(7)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object reader() {
+        return cache.get(nextKey());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+            Options options = new OptionsBuilder()
+                    .include(StripedLockBenchmark.class.getName() + ".put$")
+                    .threads(threads)
+                    .build();
+            for (RunResult result : new Runner(options).run()) {
+                System.out.printf("threads=%d, lockStripes=%s, %s%n", threads,
+                        result.getParams().getParam("lockStripes"), result.getPrimaryResult());
+            }
+        }
+    }
+
+}
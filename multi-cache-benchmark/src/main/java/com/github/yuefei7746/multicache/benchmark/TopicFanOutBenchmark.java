@@ -0,0 +1,96 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.ClearLocalCacheListener;
+import com.github.yuefei7746.multicache.support.MultiCache;
+import com.github.yuefei7746.multicache.support.MultiCacheManager;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次 put 或 evict 发布的 topic 消息被 {@code nodes} 个节点（包括发布者自己）接收处理的总耗时
+ * <p>
+ * Redis 替身在发布线程中把消息同步交给每个节点的 {@link ClearLocalCacheListener}，
+ * 因此测得的是发布一次加上所有节点反序列化并更新本地缓存的 CPU 开销，不包含网络耗时。
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TopicFanOutBenchmark {
+
+    private static final String CACHE_NAME = "benchmark";
+
+    private static final byte[] CHANNEL = "cache:multi:topic".getBytes(StandardCharsets.UTF_8);
+
+    private static final int KEY_SPACE = 1 << 10;
+
+    @Param({"1", "4", "16"})
+    public int nodes;
+
+    private final List<MultiCacheManager> managers = new ArrayList<>();
+
+    private MultiCache publisher;
+
+    @Setup
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        property.getCaffeine().setMaximumSize(KEY_SPACE);
+        InMemoryRedisConnectionFactory connectionFactory = new InMemoryRedisConnectionFactory(Duration.ZERO);
+
+        List<ClearLocalCacheListener> listeners = new ArrayList<>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            RedisTemplate<Object, Object> redisTemplate = BenchmarkSupport.redisTemplate(property, connectionFactory);
+            MultiCacheManager manager = new MultiCacheManager(property, redisTemplate);
+            manager.afterPropertiesSet();
+            managers.add(manager);
+            listeners.add(new ClearLocalCacheListener(redisTemplate, manager));
+        }
+        connectionFactory.subscribe(body -> {
+            DefaultMessage message = new DefaultMessage(CHANNEL, body);
+            for (ClearLocalCacheListener listener : listeners) {
+                listener.onMessage(message, null);
+            }
+        });
+        publisher = (MultiCache) managers.get(0).getCache(CACHE_NAME);
+    }
+
+    private static int nextKey() {
+        return ThreadLocalRandom.current().nextInt(KEY_SPACE);
+    }
+
+    /**
+     * put 会广播完整的值，各节点直接写入本地缓存
+     */
+    @Benchmark
+    public void put() {
+        publisher.put(nextKey(), "value");
+    }
+
+    /**
+     * evict 只广播 key，各节点失效本地缓存
+     */
+    @Benchmark
+    public void evict() {
+        publisher.evict(nextKey());
+    }
+
+    @TearDown
+    public void tearDown() {
+        managers.forEach(MultiCacheManager::destroy);
+        managers.clear();
+    }
+
+}
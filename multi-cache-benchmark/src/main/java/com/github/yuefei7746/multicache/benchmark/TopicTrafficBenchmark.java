@@ -0,0 +1,105 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.MessageOrigin;
+import com.github.yuefei7746.multicache.support.MultiCache;
+import com.github.yuefei7746.multicache.support.TopicMessage;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地缓存未命中时 topic 上产生的流量
+ * <p>
+ * 每次操作先让本地缓存失效，再通过 {@code get(key, valueLoader)} 读取：{@code l2Hit} 从 Redis 命中，{@code load} 调用 valueLoader 加载。
+ * 附加计数器 {@code topicBytes} 是实际发布到 topic 的字节数，{@code fullValueBytes} 是同样的读取如果广播完整值需要发布的字节数，
+ * {@code reads} 是读取次数。
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TopicTrafficBenchmark {
+
+    private static final String CACHE_NAME = "benchmark";
+
+    /**
+     * 模拟其他节点发布的消息
+     */
+    private static final MessageOrigin ORIGIN = new MessageOrigin();
+
+    private static final int KEY_SPACE = 1 << 10;
+
+    @Param({"100", "1000", "10000"})
+    public int valueSize;
+
+    private InMemoryRedisConnectionFactory connectionFactory;
+
+    private RedisSerializer<Object> valueSerializer;
+
+    private MultiCache cache;
+
+    private String value;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Traffic {
+
+        public long topicBytes;
+
+        public long fullValueBytes;
+
+        public long reads;
+
+        private int next;
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        connectionFactory = new InMemoryRedisConnectionFactory(Duration.ZERO);
+        RedisTemplate<Object, Object> redisTemplate = BenchmarkSupport.redisTemplate(property, connectionFactory);
+        valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        cache = new MultiCache(CACHE_NAME, redisTemplate, property);
+
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        value = new String(chars);
+        for (int i = 0; i < KEY_SPACE; i++) {
+            cache.put(i, value);
+        }
+    }
+
+    @Benchmark
+    public Object l2Hit(Traffic traffic) {
+        int key = traffic.next++ & (KEY_SPACE - 1);
+        return read(traffic, key);
+    }
+
+    @Benchmark
+    public Object load(Traffic traffic) {
+        int key = KEY_SPACE + traffic.next++;
+        return read(traffic, key);
+    }
+
+    private Object read(Traffic traffic, int key) {
+        cache.pullMessage(TopicMessage.create(ORIGIN, CACHE_NAME, key, 0));
+        long before = connectionFactory.getPublishedBytes();
+        Object result = cache.get(key, () -> value);
+        traffic.topicBytes += connectionFactory.getPublishedBytes() - before;
+        traffic.reads++;
+        traffic.fullValueBytes += valueSerializer.serialize(
+                TopicMessage.create(ORIGIN, CACHE_NAME, key, valueSerializer.serialize(value), 0)).length;
+        return result;
+    }
+
+}
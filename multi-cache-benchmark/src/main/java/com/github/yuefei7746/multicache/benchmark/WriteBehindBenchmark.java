@@ -0,0 +1,64 @@
+package com.github.yuefei7746.multicache.benchmark;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import com.github.yuefei7746.multicache.support.MultiCache;
+import com.github.yuefei7746.multicache.support.MultiCacheManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同步写入与异步批量写回的 put 吞吐量对比，结束时输出每次 put 平均产生的 Redis 往返次数
+ *
+ * @author yuefei7746
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriteBehindBenchmark {
+
+    private static final int KEY_SPACE = 1 << 12;
+
+    @Param({"false", "true"})
+    public boolean writeBehind;
+
+    @Param({"200"})
+    public long redisLatencyMicros;
+
+    private InMemoryRedisConnectionFactory connectionFactory;
+
+    private MultiCacheManager cacheManager;
+
+    private MultiCache cache;
+
+    private long puts;
+
+    @Setup
+    public void setup() {
+        MultiCacheProperty property = new MultiCacheProperty();
+        property.getRedis().getWriteBehind().setEnabled(writeBehind);
+        connectionFactory =
+                new InMemoryRedisConnectionFactory(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(redisLatencyMicros)));
+        cacheManager = BenchmarkSupport.cacheManager(property, connectionFactory);
+        cache = (MultiCache) cacheManager.getCache("benchmark");
+    }
+
+    @Benchmark
+    public void put() {
+        cache.put(ThreadLocalRandom.current().nextInt(KEY_SPACE), "value");
+        puts++;
+    }
+
+    @TearDown
+    public void tearDown() {
+        cacheManager.destroy();
+        System.out.printf("%nwriteBehind=%s, puts=%d, redis round trips=%d%n",
+                writeBehind, puts, connectionFactory.getRoundTrips());
+    }
+
+}
@@ -8,16 +8,40 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.github.benmanes.caffeine.cache.Weigher;
 import com.github.yuefei7746.multicache.support.ClearLocalCacheListener;
+import com.github.yuefei7746.multicache.support.ClientTrackingListener;
+import com.github.yuefei7746.multicache.support.HotKeyEndpoint;
+import com.github.yuefei7746.multicache.support.Lz4CompressingRedisSerializer;
+import com.github.yuefei7746.multicache.support.MicrometerMultiCacheMetrics;
 import com.github.yuefei7746.multicache.support.MultiCacheManager;
+import com.github.yuefei7746.multicache.support.MultiCacheMetrics;
+import com.github.yuefei7746.multicache.support.StreamInvalidationListener;
+import io.lettuce.core.RedisClient;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
 import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
@@ -29,7 +53,9 @@ import org.springframework.data.redis.serializer.RedisSerializer;
  */
 @RequiredArgsConstructor
 @Configuration
-@AutoConfigureAfter(RedisAutoConfiguration.class)
+@AutoConfigureAfter(value = RedisAutoConfiguration.class, name = {
+        "org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration"})
 @EnableConfigurationProperties(MultiCacheProperty.class)
 public class MultiCacheAutoConfiguration {
 
@@ -39,8 +65,11 @@ public class MultiCacheAutoConfiguration {
 
     @Bean
     @ConditionalOnMissingBean
-    public MultiCacheManager cacheManager(RedisTemplate<Object, Object> redisTemplate) {
-        return new MultiCacheManager(multiCacheProperty, redisTemplate);
+    public MultiCacheManager cacheManager(RedisTemplate<Object, Object> redisTemplate,
+                                          ObjectProvider<MultiCacheMetrics> metrics,
+                                          ObjectProvider<Weigher<Object, Object>> weigher) {
+        return new MultiCacheManager(multiCacheProperty, redisTemplate, metrics.getIfAvailable(),
+                weigher.getIfUnique());
     }
 
     @Bean
@@ -48,34 +77,65 @@ public class MultiCacheAutoConfiguration {
                                                                        RedisTemplate<Object, Object> redisTemplate) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(redisConnectionFactory);
-        container.addMessageListener(
-                new ClearLocalCacheListener(redisTemplate, cacheManager),
-                new ChannelTopic(multiCacheProperty.getRedis().getTopic()));
+        // 监听器只反序列化消息并交给 MultiCacheManager 的分区线程，不需要默认的每条消息一个线程
+        container.setTaskExecutor(new SyncTaskExecutor());
+        // 未设置时会复用上面的同步执行器，Jedis 的 SUBSCRIBE 会阻塞调用 start() 的线程
+        container.setSubscriptionExecutor(new SimpleAsyncTaskExecutor("multi-cache-subscription-"));
+        if (multiCacheProperty.getRedis().getInvalidation() == MultiCacheProperty.InvalidationMode.TOPIC) {
+            container.addMessageListener(
+                    new ClearLocalCacheListener(redisTemplate, cacheManager),
+                    new ChannelTopic(multiCacheProperty.getRedis().getTopic()));
+        }
         container.afterPropertiesSet();
         return container;
     }
 
     @Bean
     @ConditionalOnMissingBean
-    public RedisTemplate<Object, Object> redisTemplate(Jackson2JsonRedisSerializer<Object> jacksonSerializer) {
+    public RedisTemplate<Object, Object> redisTemplate(
+            @Qualifier("multiCacheValueSerializer") RedisSerializer<Object> valueSerializer) {
         RedisTemplate<Object, Object> redisTemplate = new RedisTemplate<>();
 
         redisTemplate.setDefaultSerializer(RedisSerializer.string());
 
-        redisTemplate.setHashValueSerializer(jacksonSerializer);
-        redisTemplate.setValueSerializer(jacksonSerializer);
+        redisTemplate.setHashValueSerializer(valueSerializer);
+        redisTemplate.setValueSerializer(valueSerializer);
 
         redisTemplate.setConnectionFactory(redisConnectionFactory);
         redisTemplate.afterPropertiesSet();
         return redisTemplate;
     }
 
+    /**
+     * 缓存值与 topic 消息使用的序列化器，按 spring.cache.multi.redis.serializer 配置选择格式与压缩
+     */
+    @Bean
+    @ConditionalOnMissingBean(name = "multiCacheValueSerializer")
+    public RedisSerializer<Object> multiCacheValueSerializer() {
+        MultiCacheProperty.SerializerProperty serializerProperty = multiCacheProperty.getRedis().getSerializer();
+        RedisSerializer<Object> valueSerializer =
+                serializerProperty.getType() == MultiCacheProperty.SerializerType.SMILE
+                        ? SmileSerializer.create() : jackson2JsonRedisSerializer();
+
+        long compressThreshold = serializerProperty.getCompressThreshold().toBytes();
+        if (compressThreshold > 0) {
+            valueSerializer = new Lz4CompressingRedisSerializer(valueSerializer, (int) compressThreshold);
+        }
+        return valueSerializer;
+    }
+
     /**
      * Jackson 装配的 Redis 序列化器
      */
     @Bean
     public Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer() {
-        ObjectMapper om = new ObjectMapper();
+        Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer =
+                new Jackson2JsonRedisSerializer<>(Object.class);
+        jackson2JsonRedisSerializer.setObjectMapper(configureObjectMapper(new ObjectMapper()));
+        return jackson2JsonRedisSerializer;
+    }
+
+    private static ObjectMapper configureObjectMapper(ObjectMapper om) {
         om.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
         om.configure(MapperFeature.USE_ANNOTATIONS, false);
         om.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
@@ -84,11 +144,128 @@ public class MultiCacheAutoConfiguration {
         om.activateDefaultTyping(om.getPolymorphicTypeValidator(),
                 ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
         om.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        return om;
+    }
+
+    /**
+     * 开启热点 key 探测时通过 JMX 查看热点 key
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.cache.multi.hot-key", name = "enabled", havingValue = "true")
+    @ConditionalOnMissingBean
+    public HotKeyEndpoint hotKeyEndpoint(MultiCacheManager cacheManager) {
+        return new HotKeyEndpoint(cacheManager);
+    }
+
+    /**
+     * 存在 MeterRegistry 时通过 Micrometer 记录两级缓存的指标
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterRegistry.class)
+    static class MultiCacheMetricsConfiguration {
+
+        @Bean
+        @ConditionalOnBean(MeterRegistry.class)
+        @ConditionalOnMissingBean
+        public MultiCacheMetrics multiCacheMetrics(MeterRegistry meterRegistry) {
+            return new MicrometerMultiCacheMetrics(meterRegistry);
+        }
+
+    }
+
+    /**
+     * spring.cache.multi.redis.invalidation 为 CLIENT_TRACKING 时通过 Redis 推送的失效消息失效本地缓存
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(RedisClient.class)
+    @Conditional(ClientTrackingCondition.class)
+    static class ClientTrackingConfiguration {
+
+        @Bean
+        public ClientTrackingListener clientTrackingListener(RedisConnectionFactory redisConnectionFactory,
+                                                             MultiCacheManager cacheManager) {
+            if (!(redisConnectionFactory instanceof LettuceConnectionFactory)) {
+                throw new IllegalStateException("Client tracking invalidation requires a LettuceConnectionFactory");
+            }
+            return new ClientTrackingListener((LettuceConnectionFactory) redisConnectionFactory, cacheManager);
+        }
+
+    }
+
+    /**
+     * spring.cache.multi.redis.invalidation 为 STREAM 时从 Redis Stream 读取失效消息
+     */
+    @Configuration(proxyBeanMethods = false)
+    @Conditional(StreamCondition.class)
+    static class StreamInvalidationConfiguration {
+
+        @Bean
+        public StreamInvalidationListener streamInvalidationListener(RedisTemplate<Object, Object> redisTemplate,
+                                                                     RedisConnectionFactory redisConnectionFactory,
+                                                                     MultiCacheManager cacheManager,
+                                                                     MultiCacheProperty multiCacheProperty) {
+            if (!(redisConnectionFactory instanceof LettuceConnectionFactory)) {
+                throw new IllegalStateException("Stream invalidation requires a LettuceConnectionFactory");
+            }
+            return new StreamInvalidationListener(redisTemplate, (LettuceConnectionFactory) redisConnectionFactory,
+                    cacheManager, multiCacheProperty.getRedis());
+        }
+
+    }
+
+    /**
+     * 按绑定后的枚举值判断，与配置中的写法（client-tracking、CLIENT_TRACKING 等）无关
+     */
+    abstract static class InvalidationModeCondition extends SpringBootCondition {
+
+        private final MultiCacheProperty.InvalidationMode expected;
+
+        InvalidationModeCondition(MultiCacheProperty.InvalidationMode expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            MultiCacheProperty.InvalidationMode mode = Binder.get(context.getEnvironment())
+                    .bind("spring.cache.multi.redis.invalidation", MultiCacheProperty.InvalidationMode.class)
+                    .orElse(MultiCacheProperty.InvalidationMode.TOPIC);
+            return mode == expected
+                    ? ConditionOutcome.match(mode + " invalidation")
+                    : ConditionOutcome.noMatch(mode + " invalidation");
+        }
+
+    }
+
+    static class ClientTrackingCondition extends InvalidationModeCondition {
+
+        ClientTrackingCondition() {
+            super(MultiCacheProperty.InvalidationMode.CLIENT_TRACKING);
+        }
+
+    }
+
+    static class StreamCondition extends InvalidationModeCondition {
+
+        StreamCondition() {
+            super(MultiCacheProperty.InvalidationMode.STREAM);
+        }
+
+    }
+
+    /**
+     * Smile 二进制格式的 Redis 序列化器，与 JSON 使用相同的映射配置
+     * <p>
+     * 单独放在内部类中，未引入 jackson-dataformat-smile 时不会加载 SmileFactory
+     */
+    private static final class SmileSerializer {
+
+        private static Jackson2JsonRedisSerializer<Object> create() {
+            Jackson2JsonRedisSerializer<Object> smileRedisSerializer =
+                    new Jackson2JsonRedisSerializer<>(Object.class);
+            smileRedisSerializer.setObjectMapper(configureObjectMapper(new ObjectMapper(new SmileFactory())));
+            return smileRedisSerializer;
+        }
 
-        Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer =
-                new Jackson2JsonRedisSerializer<>(Object.class);
-        jackson2JsonRedisSerializer.setObjectMapper(om);
-        return jackson2JsonRedisSerializer;
     }
 
 }
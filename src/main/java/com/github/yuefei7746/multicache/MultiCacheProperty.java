@@ -1,16 +1,24 @@
 package com.github.yuefei7746.multicache;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.CacheWriter;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Weigher;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
 
 import java.math.BigDecimal;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * @author yuefei7746
@@ -39,10 +47,28 @@ public class MultiCacheProperty {
      */
     private String cachePrefix;
 
+    /**
+     * 每个缓存按 key 分段加锁的段数，会向上取整为 2 的幂。默认值：64
+     * <p>
+     * 同一分段内的写操作互斥，设为 1 时等价于整个缓存共用一把读写锁。
+     */
+    private int lockStripes = 64;
+
+    /**
+     * 执行 getAsync、putAsync、evictAsync 中 Redis 调用的线程数，空闲的线程会被回收。默认值：8
+     */
+    private int asyncThreads = 8;
+
     private RedisProperty redis = new RedisProperty();
 
     private CaffeineProperty caffeine = new CaffeineProperty();
 
+    private OffHeapProperty offHeap = new OffHeapProperty();
+
+    private HotKeyProperty hotKey = new HotKeyProperty();
+
+    private BloomFilterProperty bloomFilter = new BloomFilterProperty();
+
     @Data
     public static class RedisProperty {
 
@@ -61,11 +87,78 @@ public class MultiCacheProperty {
          */
         private Map<String, Duration> expires = new HashMap<>();
 
+        /**
+         * 空值在 Redis 中保存的时间，为 0 时空值不写入 Redis。默认值：0
+         * <p>
+         * 大于 0 时以空字符串作为标记写入 Redis，其他节点读到标记后不再调用加载函数，适合较短的时间，
+         * 例如几十秒，避免不存在的 key 在每个节点上都穿透到数据源。只在 cacheNullValues 为 true 时读取标记。
+         */
+        private Duration nullValueExpiration = Duration.ZERO;
+
         /**
          * 缓存更新时通知其他节点的topic名称
+         * <p>
+         * 消息格式与 value 为对象的旧版本不兼容，从旧版本滚动升级时应同时修改该名称。
          */
         private String topic = "cache:multi:topic";
 
+        /**
+         * put 与 evict 的异步批量写回配置
+         */
+        private WriteBehindProperty writeBehind = new WriteBehindProperty();
+
+        /**
+         * Redis 中的值与 topic 消息的序列化配置
+         */
+        private SerializerProperty serializer = new SerializerProperty();
+
+        /**
+         * get(key, valueLoader) 在集群内合并并发加载的配置
+         */
+        private SingleFlightProperty singleFlight = new SingleFlightProperty();
+
+        /**
+         * 每个cacheName的提前重算（XFetch）系数，大于 0 时开启，常用值为 1，越大越早重算
+         * <p>
+         * 开启后写入 Redis 的值会附带重算耗时与过期时刻，读取时按概率提前判定为过期，
+         * 使热点 key 在真正过期前由个别请求完成重算，避免过期瞬间大量请求同时回源。
+         */
+        private Map<String, Double> earlyExpirationBeta = new HashMap<>();
+
+        /**
+         * clear 时每次 SCAN 的 COUNT 以及每条 UNLINK 删除的 key 数，默认值：1000
+         */
+        private int clearBatchSize = 1000;
+
+        /**
+         * 通知各节点失效本地缓存的方式，默认值：TOPIC
+         */
+        private InvalidationMode invalidation = InvalidationMode.TOPIC;
+
+        /**
+         * 是否为每次写入生成版本号，默认值：false
+         * <p>
+         * 开启后 Redis 中的值与 topic 消息都带有版本号，本地缓存只接受比已有值更新的版本，
+         * 延迟到达的旧消息不会覆盖新值，可以放心地使用更长的本地缓存过期时间。
+         * 此时 put 广播的值只更新其他节点本地缓存中已有的 key，没有的 key 在读取时从 Redis 加载。
+         */
+        private boolean versioned = false;
+
+        /**
+         * topic 消息的处理配置
+         */
+        private ListenerProperty listener = new ListenerProperty();
+
+        /**
+         * Redis 调用的熔断配置
+         */
+        private CircuitBreakerProperty circuitBreaker = new CircuitBreakerProperty();
+
+        /**
+         * invalidation 为 STREAM 时使用的 Redis Stream 配置
+         */
+        private StreamProperty stream = new StreamProperty();
+
         public long offsetToLeft(long expire) {
             return BigDecimal.valueOf(expire)
                     .multiply(BigDecimal.valueOf(1 - expireOffset))
@@ -80,6 +173,226 @@ public class MultiCacheProperty {
 
     }
 
+    @Data
+    public static class WriteBehindProperty {
+
+        /**
+         * 是否开启异步写回，默认值：false
+         * <p>
+         * 开启后 put 与 evict 只同步更新本地缓存，Redis 写入与 topic 通知进入有界队列，
+         * 由后台线程合并同一 key 的重复写入后，通过 pipeline 批量提交。
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每次 pipeline 提交的最大操作数，默认值：100
+         */
+        private int batchSize = 100;
+
+        /**
+         * 凑批的最长等待时间，默认值：10 毫秒
+         */
+        private Duration flushInterval = Duration.ofMillis(10);
+
+        /**
+         * 队列中等待写回的最大 key 数，队列满时写入线程会阻塞等待。默认值：10000
+         */
+        private int queueCapacity = 10000;
+
+    }
+
+    @Data
+    public static class SingleFlightProperty {
+
+        /**
+         * 是否开启集群内的并发加载合并，默认值：false
+         * <p>
+         * 开启后 Redis 未命中时，各节点先通过 SET NX PX 抢占租约，只有持有租约的节点调用 valueLoader，
+         * 其他节点轮询 Redis 等待结果，租约持有者宕机导致租约过期后再重新抢占。
+         */
+        private boolean enabled = false;
+
+        /**
+         * 租约的有效期，应大于 valueLoader 的正常耗时。默认值：5 秒
+         */
+        private Duration leaseTime = Duration.ofSeconds(5);
+
+        /**
+         * 等待其他节点加载的最长时间，超时后由当前节点自行加载。默认值：10 秒
+         */
+        private Duration waitTimeout = Duration.ofSeconds(10);
+
+        /**
+         * 等待期间轮询 Redis 的间隔，默认值：20 毫秒
+         */
+        private Duration pollInterval = Duration.ofMillis(20);
+
+    }
+
+    @Data
+    public static class ListenerProperty {
+
+        /**
+         * 处理 topic 消息的线程数，会向上取整为 2 的幂。默认值：4
+         * <p>
+         * 消息按缓存名与 key 分配给固定的线程，同一个 key 的消息按接收顺序处理。
+         */
+        private int threads = 4;
+
+        /**
+         * 每个线程等待处理的最大消息数，队列满时丢弃消息并清空对应缓存的本地缓存。默认值：10000
+         */
+        private int queueCapacity = 10000;
+
+    }
+
+    @Data
+    public static class StreamProperty {
+
+        /**
+         * 保存失效消息的 Stream 的 key，默认值：cache:multi:stream
+         */
+        private String key = "cache:multi:stream";
+
+        /**
+         * Stream 保留的消息数，写入时通过 XADD MAXLEN ~ 近似裁剪。默认值：100000
+         * <p>
+         * 节点断开的时间内写入的消息超过该数量时，重连后无法补齐错过的消息，只能清空全部本地缓存。
+         */
+        private long maxLength = 100000;
+
+        /**
+         * 每次 XREAD 读取的最大消息数，默认值：500
+         */
+        private int batchSize = 500;
+
+        /**
+         * XREAD BLOCK 的等待时间，应小于 Redis 客户端的命令超时。默认值：1 秒
+         */
+        private Duration blockTimeout = Duration.ofSeconds(1);
+
+    }
+
+    @Data
+    public static class BloomFilterProperty {
+
+        /**
+         * 每个cacheName预计的 key 数，只有配置了的缓存开启布隆过滤器
+         * <p>
+         * 开启后 Redis 未命中时，调用加载函数之前先检查 key 是否可能存在，一定不存在的 key 直接按空值返回，不写入本地缓存。
+         * 先读取 Redis 是因为本地副本可能还没有同步到其他节点新写入的 key。
+         * 位图保存在 Redis 的 [cachePrefix:]cacheName:bloom 中，由应用通过 MultiCacheManager#addToBloomFilter 写入所有已有的 key 后生效；
+         * 之后通过缓存写入的新 key 会自动加入，位图创建之前写入的 key 在各节点下一次同步看到位图时补写。删除的 key 无法从过滤器中移除，可以配合 redis.null-value-expiration 使用。
+         */
+        private Map<String, Long> expectedInsertions = new HashMap<>();
+
+        /**
+         * 达到预计的 key 数时的误判率，默认值：0.01
+         */
+        private double falsePositiveRate = 0.01;
+
+        /**
+         * 本地副本从 Redis 同步位图的间隔，默认值：30 秒
+         * <p>
+         * 每次同步用 Redis 中的位图重建本地副本。
+         * topic、Stream 消息与客户端缓存推送中的 key，以及从 Redis 读到值的 key，会在收到时立即加入本地副本。
+         */
+        private Duration syncInterval = Duration.ofSeconds(30);
+
+    }
+
+    @Data
+    public static class CircuitBreakerProperty {
+
+        /**
+         * 是否开启熔断，默认值：false
+         * <p>
+         * 开启后 Redis 调用连续失败或超时达到次数时断开，断开期间只使用本地缓存与加载函数，不写入 Redis、不发布消息，
+         * 并定期放行一次调用探测 Redis 是否恢复。恢复后删除断开期间没有写入的 key，通知各节点并清空本地缓存。
+         */
+        private boolean enabled = false;
+
+        /**
+         * 连续失败多少次后断开，默认值：5
+         */
+        private int failureThreshold = 5;
+
+        /**
+         * 耗时超过该值的调用按失败计算，为 0 时不判断耗时。默认值：500 毫秒
+         */
+        private Duration slowCallThreshold = Duration.ofMillis(500);
+
+        /**
+         * 断开后多久放行一次探测调用，默认值：10 秒
+         */
+        private Duration openDuration = Duration.ofSeconds(10);
+
+        /**
+         * 每个缓存记录断开期间没有写入的 key 的数量上限，超过时恢复后按前缀删除整个缓存。默认值：10000
+         */
+        private int maxSkippedKeys = 10000;
+
+    }
+
+    @Data
+    public static class SerializerProperty {
+
+        /**
+         * 序列化格式，默认值：JSON
+         * <p>
+         * 如果需要其他格式，可以注册名为 multiCacheValueSerializer 的 RedisSerializer 替换默认实现。
+         * <p>
+         * 读取时不识别格式，已写入 Redis 的数据无法按新格式反序列化。修改该配置时需要先清空缓存，或同时修改 cachePrefix 使用新的 key。
+         */
+        private SerializerType type = SerializerType.JSON;
+
+        /**
+         * 序列化结果超过该大小时使用 LZ4 压缩，为 0 时不压缩。默认值：0
+         * <p>
+         * 读取时会自动识别是否经过压缩，修改该配置不影响已写入 Redis 的数据。
+         */
+        private DataSize compressThreshold = DataSize.ofBytes(0);
+
+    }
+
+    public enum InvalidationMode {
+
+        /**
+         * 写入后由写入方向 topic 发布消息
+         */
+        TOPIC,
+
+        /**
+         * 由 Redis 6 的客户端缓存（RESP3 CLIENT TRACKING BCAST）在 key 被修改时推送失效消息，写入方不再发布消息
+         * <p>
+         * 只支持 Lettuce 单机模式。写入方自己的本地缓存也会在写入后被失效，下一次读取会回到 Redis。
+         */
+        CLIENT_TRACKING,
+
+        /**
+         * 写入后由写入方把消息追加到有长度上限的 Redis Stream，各节点记录读到的位置
+         * <p>
+         * 与 TOPIC 相比，节点断开重连、GC 停顿期间错过的消息可以从 Stream 中补读，
+         * 只有错过的消息已经被裁剪时才清空全部本地缓存。需要 Redis 5 以上，只支持 Lettuce。
+         */
+        STREAM
+
+    }
+
+    public enum SerializerType {
+
+        /**
+         * 带类型信息的 JSON，可读性好
+         */
+        JSON,
+
+        /**
+         * 与 JSON 相同数据模型的二进制格式 Smile，体积更小、编解码更快，需要引入 jackson-dataformat-smile
+         */
+        SMILE
+
+    }
+
     @Data
     public static class CaffeineProperty {
 
@@ -97,14 +410,37 @@ public class MultiCacheProperty {
          */
         private Duration expireAfterWrite = Duration.ofMinutes(3);
 
+        /**
+         * 本地缓存中的值是否不超过其在 Redis 中的剩余时间，默认值：false
+         * <p>
+         * 开启后每个值单独计算过期时间，取 expireAfterWrite 与 Redis 中剩余时间的较小值：从 Redis 读取的值通过同一次 pipeline
+         * 中的 PTTL 获取剩余时间，写入的值按该缓存在 Redis 中最短的过期时间计算。此时可以把 expireAfterWrite 设得更长以提高命中率，
+         * 不会返回 Redis 中已经过期的值。不能与 expireAfterAccess 同时使用。
+         */
+        private boolean expireWithRedis = false;
+
         /**
          * 写入后刷新时间
          * <p>
-         * 在最后一次写入缓存后开始计时，在指定的时间后刷新。
-         * 如果使用refreshAfterWrite配置,必须指定一个CacheLoader
+         * 在最后一次写入缓存后开始计时，在指定的时间后的首次访问会触发后台刷新，刷新完成前继续返回旧值。
+         * 刷新时先读取 Redis，Redis 中没有时调用 MultiCacheManager#registerRefreshLoader 注册的加载函数。
          */
         private Duration refreshAfterWrite = Duration.ZERO;
 
+        /**
+         * 过期后保留旧值的时间，为 0 时不保留
+         * <p>
+         * 与 refreshAfterWrite、expireAfterWrite 组成软过期与硬过期：超过 refreshAfterWrite 后继续返回旧值并在后台刷新，
+         * 超过 expireAfterWrite 后从本地缓存中删除。删除的值再保留该时间，期间读取 Redis 或调用加载函数抛出异常时返回旧值，
+         * 旧值不会写回本地缓存。显式的写入与失效会同时删除保留的旧值。
+         */
+        private Duration staleIfError = Duration.ZERO;
+
+        /**
+         * 执行后台刷新的线程数，所有缓存共用，仅在配置了 refreshAfterWrite 时创建。默认值：2
+         */
+        private int refreshThreads = 2;
+
         /**
          * 初始化大小，默认值：10
          */
@@ -116,31 +452,199 @@ public class MultiCacheProperty {
         private long maximumSize = 1000;
 
         /**
-         * @deprecated 由于权重需要缓存对象来提供，对于使用spring cache这种场景不是很适合，所以暂不支持配置
+         * 最大权重，大于 0 时代替 maximumSize 按权重淘汰
+         * <p>
+         * 默认以缓存值序列化后的字节数作为权重，此时单位为字节；注册了 Weigher bean 时使用该 bean 计算权重。
          */
-        @Deprecated
         private long maximumWeight;
 
+        /**
+         * 每个cacheName单独的配置，没有配置的项使用上面的全局配置
+         */
+        private Map<String, CaffeineOverrideProperty> caches = new HashMap<>();
+
+        /**
+         * @return 合并了 cacheName 单独配置后的配置，没有单独配置时返回自身
+         */
+        public CaffeineProperty forCache(String cacheName) {
+            CaffeineOverrideProperty override = caches.get(cacheName);
+            if (override == null) {
+                return this;
+            }
+            CaffeineProperty merged = new CaffeineProperty();
+            merged.setExpireAfterAccess(Optional.ofNullable(override.getExpireAfterAccess()).orElse(expireAfterAccess));
+            merged.setExpireAfterWrite(Optional.ofNullable(override.getExpireAfterWrite()).orElse(expireAfterWrite));
+            merged.setExpireWithRedis(Optional.ofNullable(override.getExpireWithRedis()).orElse(expireWithRedis));
+            merged.setRefreshAfterWrite(Optional.ofNullable(override.getRefreshAfterWrite()).orElse(refreshAfterWrite));
+            merged.setStaleIfError(Optional.ofNullable(override.getStaleIfError()).orElse(staleIfError));
+            merged.setRefreshThreads(refreshThreads);
+            merged.setInitialCapacity(Optional.ofNullable(override.getInitialCapacity()).orElse(initialCapacity));
+            merged.setMaximumSize(Optional.ofNullable(override.getMaximumSize()).orElse(maximumSize));
+            merged.setMaximumWeight(Optional.ofNullable(override.getMaximumWeight()).orElse(maximumWeight));
+            return merged;
+        }
+
+        /**
+         * 全局或任意一个cacheName配置了 refreshAfterWrite
+         */
+        public boolean isRefreshEnabled() {
+            return !refreshAfterWrite.isZero() || caches.values().stream()
+                    .anyMatch(override -> override.getRefreshAfterWrite() != null
+                            && !override.getRefreshAfterWrite().isZero());
+        }
+
         public Cache<Object, Object> createCache() {
+            return createCache(null, null, false, null, null, null);
+        }
+
+        /**
+         * @param refreshLoader   配置了 refreshAfterWrite 时用于后台刷新的加载器，为 null 时不刷新
+         * @param refreshExecutor 执行后台刷新的线程池，为 null 时使用 caffeine 默认的线程池
+         * @param recordStats     是否记录命中率等统计信息
+         * @param weigher         配置了 maximumWeight 时计算权重的函数，为 null 时按 maximumSize 淘汰
+         * @param writer          同步接收写入与删除的回调，为 null 时不注册
+         * @param expiry          每个值单独的过期时间，不为 null 时代替 expireAfterWrite，不能与 expireAfterAccess 同时使用
+         */
+        public Cache<Object, Object> createCache(@Nullable CacheLoader<Object, Object> refreshLoader,
+                                                 @Nullable Executor refreshExecutor,
+                                                 boolean recordStats,
+                                                 @Nullable Weigher<Object, Object> weigher,
+                                                 @Nullable CacheWriter<Object, Object> writer,
+                                                 @Nullable Expiry<Object, Object> expiry) {
             Caffeine<Object, Object> cacheBuilder = Caffeine.newBuilder();
-            if (!expireAfterAccess.isZero()) {
-                cacheBuilder.expireAfterAccess(expireAfterAccess);
+            if (writer != null) {
+                cacheBuilder.writer(writer);
             }
-            if (!expireAfterWrite.isZero()) {
-                cacheBuilder.expireAfterWrite(expireAfterWrite);
+            if (recordStats) {
+                cacheBuilder.recordStats();
+            }
+            if (expiry != null) {
+                if (!expireAfterAccess.isZero()) {
+                    throw new IllegalStateException("expireWithRedis cannot be used with expireAfterAccess");
+                }
+                cacheBuilder.expireAfter(expiry);
+            } else {
+                if (!expireAfterAccess.isZero()) {
+                    cacheBuilder.expireAfterAccess(expireAfterAccess);
+                }
+                if (!expireAfterWrite.isZero()) {
+                    cacheBuilder.expireAfterWrite(expireAfterWrite);
+                }
             }
             if (initialCapacity > 0) {
                 cacheBuilder.initialCapacity(initialCapacity);
             }
-            if (maximumSize > 0) {
+            if (maximumWeight > 0 && weigher != null) {
+                cacheBuilder.maximumWeight(maximumWeight).weigher(weigher);
+            } else if (maximumSize > 0) {
                 cacheBuilder.maximumSize(maximumSize);
             }
-            if (!refreshAfterWrite.isZero()) {
-                cacheBuilder.refreshAfterWrite(refreshAfterWrite);
+            if (refreshLoader == null || refreshAfterWrite.isZero()) {
+                return cacheBuilder.build();
+            }
+            if (refreshExecutor != null) {
+                cacheBuilder.executor(refreshExecutor);
             }
-            return cacheBuilder.build();
+            return cacheBuilder.refreshAfterWrite(refreshAfterWrite).build(refreshLoader);
         }
 
     }
 
+    @Data
+    public static class OffHeapProperty {
+
+        /**
+         * 每个cacheName的堆外缓存容量，只有配置了容量的缓存开启堆外缓存
+         * <p>
+         * 开启后 Caffeine 按容量淘汰的值序列化后保存在堆外，读取时依次查找 Caffeine、堆外缓存、Redis。
+         * 堆外内存受 -XX:MaxDirectMemorySize 限制，总容量不能超过该值。
+         */
+        private Map<String, DataSize> capacity = new HashMap<>();
+
+        /**
+         * 每个缓存的分段数，会向上取整为 2 的幂，每段单独加锁与淘汰。默认值：16
+         */
+        private int segments = 16;
+
+        /**
+         * 写入堆外缓存后的过期时间，默认值：3 分钟
+         */
+        private Duration expireAfterWrite = Duration.ofMinutes(3);
+
+    }
+
+    @Data
+    public static class HotKeyProperty {
+
+        /**
+         * 是否开启热点 key 探测，默认值：false
+         * <p>
+         * 开启后在读取路径上采样估计 key 的访问频率，热点 key 由后台线程定期从 Redis 重新读取并写回本地缓存，
+         * 在访问量下降前不会因为 expireAfterWrite 或按容量淘汰集中回源到 Redis。
+         * 每次重新载入全部热点 key，开启异步写回时还没有写回的 key 使用队列中的值而不是 Redis 中落后的值；
+         * 读取 Redis 期间收到其他节点的消息或失效推送时放弃这一轮，避免旧值覆盖更新的值。
+         */
+        private boolean enabled = false;
+
+        /**
+         * 采样率，每 N 次访问随机记录一次。默认值：4
+         */
+        private int sampleRate = 4;
+
+        /**
+         * 每记录多少次访问后所有计数减半。默认值：10000
+         */
+        private int window = 10000;
+
+        /**
+         * 成为热点 key 需要的访问次数占窗口的比例。默认值：0.01
+         */
+        private double threshold = 0.01;
+
+        /**
+         * 每个缓存最多记录的热点 key 数。默认值：32
+         */
+        private int maxHotKeys = 32;
+
+        /**
+         * 后台刷新热点 key 的间隔，应小于本地缓存的 expireAfterWrite。默认值：30 秒
+         */
+        private Duration refreshInterval = Duration.ofSeconds(30);
+
+    }
+
+    /**
+     * 单个cacheName的 Caffeine 配置，为 null 的项使用全局配置
+     *
+     * @see CaffeineProperty
+     */
+    @Data
+    public static class CaffeineOverrideProperty {
+
+        @Nullable
+        private Duration expireAfterAccess;
+
+        @Nullable
+        private Duration expireAfterWrite;
+
+        @Nullable
+        private Boolean expireWithRedis;
+
+        @Nullable
+        private Duration refreshAfterWrite;
+
+        @Nullable
+        private Duration staleIfError;
+
+        @Nullable
+        private Integer initialCapacity;
+
+        @Nullable
+        private Long maximumSize;
+
+        @Nullable
+        private Long maximumWeight;
+
+    }
+
 }
@@ -0,0 +1,167 @@
+package com.github.yuefei7746.multicache.support;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 保存在 Redis 位图中的布隆过滤器，各节点在本地保留一份副本用于判断
+ * <p>
+ * 写入时同时设置本地副本与 Redis 中的位，本地副本定期读取整个位图重建，Redis 中的位图是唯一的依据。
+ * Redis 中还没有位图时过滤器未就绪，所有 key 都视为可能存在，
+ * 此时普通的写入也不会创建位图，避免只包含部分 key 的位图把其余已有的 key 判断为不存在。
+ * <p>
+ * 位的偏移量与 Redis 的 SETBIT 一致：偏移量 n 对应第 n / 8 个字节中从高位数起的第 n % 8 位。
+ *
+ * @author yuefei7746
+ */
+final class BloomFilter {
+
+    private static final long MAX_BITS = 1L << 32;
+
+    private final RedisTemplate<Object, Object> redisTemplate;
+
+    private final byte[] rawKey;
+
+    private final long bits;
+
+    private final int hashes;
+
+    private final AtomicLongArray words;
+
+    private volatile boolean ready;
+
+    /**
+     * @param expectedInsertions 预计的 key 数
+     * @param falsePositiveRate  达到预计的 key 数时的误判率
+     */
+    BloomFilter(RedisTemplate<Object, Object> redisTemplate, String redisKey, long expectedInsertions,
+                double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        double p = Math.min(0.5, Math.max(Double.MIN_VALUE, falsePositiveRate));
+        long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        this.bits = Math.min(MAX_BITS, Math.max(Long.SIZE, m));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / n * Math.log(2)));
+        this.words = new AtomicLongArray((int) ((bits + Long.SIZE - 1) / Long.SIZE));
+        this.redisTemplate = redisTemplate;
+        this.rawKey = redisTemplate.getStringSerializer().serialize(redisKey);
+    }
+
+    /**
+     * @return false 时 key 一定不存在，未就绪时总是返回 true
+     */
+    boolean mightContain(String key) {
+        if (!ready) {
+            return true;
+        }
+        for (long offset : offsets(key)) {
+            if ((words.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 只设置本地副本中的位
+     */
+    void addLocal(String key) {
+        for (long offset : offsets(key)) {
+            setLocal(offset);
+        }
+    }
+
+    /**
+     * 通过一次 pipeline 设置 Redis 中的位，位图不存在时会创建
+     */
+    void addToRedis(Collection<String> keys) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                for (long offset : offsets(key)) {
+                    connection.setBit(rawKey, offset, true);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 读取 Redis 中的位图重建本地副本，位图不存在时回到未就绪状态
+     * <p>
+     * 重建会丢弃只在本地设置的位，调用方需要重新设置还没有写入 Redis 的 key。
+     */
+    void sync() {
+        byte[] bitmap = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+        if (bitmap == null) {
+            ready = false;
+            for (int i = 0; i < words.length(); i++) {
+                words.set(i, 0);
+            }
+            return;
+        }
+        int length = (int) Math.min(bitmap.length, (bits + Byte.SIZE - 1) / Byte.SIZE);
+        for (int i = 0; i < words.length(); i++) {
+            long word = 0;
+            for (int j = 0; j < Long.BYTES; j++) {
+                int index = i * Long.BYTES + j;
+                if (index >= length) {
+                    break;
+                }
+                // 位图中的字节从高位数起，本地的位从低位数起
+                word |= (long) (Integer.reverse(bitmap[index] & 0xFF) >>> 24) << (j * Byte.SIZE);
+            }
+            words.set(i, word);
+        }
+        ready = true;
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    private void setLocal(long offset) {
+        int index = (int) (offset >>> 6);
+        long mask = 1L << offset;
+        while (true) {
+            long word = words.get(index);
+            if ((word & mask) != 0 || words.compareAndSet(index, word, word | mask)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 对 key 的 UTF-8 字节做 64 位哈希，高低 32 位作为两个哈希函数组合出其余的位置（Kirsch-Mitzenmacher），
+     * 各节点与进程重启后的结果一致
+     */
+    private long[] offsets(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        hash = mix(hash);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        long[] offsets = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = Math.floorMod(h1 + i * h2, bits);
+        }
+        return offsets;
+    }
+
+    /**
+     * MurmurHash3 的 fmix64，改善 FNV-1a 低位的分布
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e87b6L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
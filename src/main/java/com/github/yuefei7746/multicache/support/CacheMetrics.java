@@ -0,0 +1,73 @@
+package com.github.yuefei7746.multicache.support;
+
+/**
+ * 单个 {@link MultiCache} 的指标记录器，由 {@link MultiCacheMetrics#bind} 创建
+ * <p>
+ * 所有方法都在缓存的读写路径上同步调用，实现应只做计数与计时，不要有阻塞或分配大量对象的操作。
+ *
+ * @author yuefei7746
+ */
+public interface CacheMetrics {
+
+    /**
+     * 不记录任何指标
+     */
+    CacheMetrics NONE = new CacheMetrics() {
+    };
+
+    /**
+     * 对 Redis 的一次调用，pipeline 按一次调用计，STREAM 模式下的 XADD 记为 PUBLISH
+     */
+    enum RedisOperation {
+        GET, MGET, SET, DELETE, PUBLISH, PIPELINE
+    }
+
+    /**
+     * @param nanos 包含序列化与网络往返的耗时
+     */
+    default void redisCall(RedisOperation operation, long nanos) {
+    }
+
+    /**
+     * L1 未命中后读取 Redis 的结果
+     */
+    default void redisGet(int hits, int misses) {
+    }
+
+    /**
+     * L1 未命中后读取堆外缓存的结果，只在开启了堆外缓存时记录
+     */
+    default void offHeapGet(int hits, int misses) {
+    }
+
+    /**
+     * 调用 valueLoader、bulkLoader 或后台刷新加载函数
+     */
+    default void load(long nanos, boolean success) {
+    }
+
+    /**
+     * 等待分段锁的耗时
+     */
+    default void lockWait(long nanos) {
+    }
+
+    default void messageSent(int bytes) {
+    }
+
+    default void messageReceived(int bytes) {
+    }
+
+    /**
+     * 处理队列已满时丢弃了一条 topic 消息，并清空了本地缓存
+     */
+    default void messageDropped() {
+    }
+
+    /**
+     * Redis 未命中后布隆过滤器判断 key 一定不存在，没有调用加载函数
+     */
+    default void bloomFilterRejected() {
+    }
+
+}
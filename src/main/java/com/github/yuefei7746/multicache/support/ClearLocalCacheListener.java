@@ -24,7 +24,7 @@ public class ClearLocalCacheListener implements MessageListener {
         if (msg != null) {
             log.debug("receive a redis topic message, clear local cache, the cacheName is {}, the key is {}",
                     msg.getCacheName(), msg.getKey());
-            multiCacheManager.refreshCache(msg);
+            multiCacheManager.dispatchMessage(msg, message.getBody().length);
         }
     }
 
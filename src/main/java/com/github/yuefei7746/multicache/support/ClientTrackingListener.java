@@ -0,0 +1,214 @@
+package com.github.yuefei7746.multicache.support;
+
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.ProtocolVersion;
+import io.lettuce.core.resource.ClientResources;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.lang.Nullable;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 通过 Redis 6 的客户端缓存（RESP3 CLIENT TRACKING BCAST）接收 key 的失效推送，失效对应的本地缓存
+ * <p>
+ * 使用一条独立的 RESP3 连接为每个缓存的 key 前缀开启广播模式的跟踪，
+ * 任何客户端修改了这些前缀下的 key 后 Redis 都会推送 invalidate 消息，写入方不需要再发布 topic 消息。连接断开期间的推送会丢失，因此断开以及重新开启跟踪后都会失效全部本地缓存。
+ *
+ * @author yuefei7746
+ */
+@Slf4j
+public class ClientTrackingListener implements InitializingBean, DisposableBean {
+
+    private static final String INVALIDATE = "invalidate";
+
+    private static final String CLIENT_NAME = "multi-cache-tracking";
+
+    private final MultiCacheManager multiCacheManager;
+
+    private final RedisClient redisClient;
+
+    /**
+     * 已开启跟踪的 key 前缀与对应的缓存
+     */
+    private final Map<String, MultiCache> caches = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+
+    @Nullable
+    private volatile StatefulRedisConnection<String, String> connection;
+
+    public ClientTrackingListener(LettuceConnectionFactory connectionFactory, MultiCacheManager multiCacheManager) {
+        if (connectionFactory.isClusterAware() || connectionFactory.isRedisSentinelAware()) {
+            throw new IllegalStateException("Client tracking invalidation only supports standalone Redis");
+        }
+        this.multiCacheManager = multiCacheManager;
+
+        RedisURI redisUri = createRedisUri(connectionFactory);
+        ClientResources clientResources = connectionFactory.getClientResources();
+        this.redisClient = clientResources == null
+                ? RedisClient.create(redisUri) : RedisClient.create(clientResources, redisUri);
+        this.redisClient.setOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP3).build());
+        this.redisClient.addListener(new ReconnectListener());
+    }
+
+    private static RedisURI createRedisUri(LettuceConnectionFactory connectionFactory) {
+        RedisStandaloneConfiguration standalone = connectionFactory.getStandaloneConfiguration();
+        RedisURI.Builder builder = RedisURI.Builder.redis(standalone.getHostName(), standalone.getPort())
+                .withDatabase(standalone.getDatabase())
+                .withSsl(connectionFactory.isUseSsl())
+                .withVerifyPeer(connectionFactory.isVerifyPeer())
+                .withStartTls(connectionFactory.isStartTls())
+                .withTimeout(Duration.ofMillis(connectionFactory.getTimeout()))
+                .withClientName(CLIENT_NAME);
+        String username = standalone.getUsername();
+        standalone.getPassword().toOptional().ifPresent(password -> {
+            if (username != null) {
+                builder.withAuthentication(username, password);
+            } else {
+                builder.withPassword(password);
+            }
+        });
+        return builder.build();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        StatefulRedisConnection<String, String> connection = redisClient.connect(StringCodec.UTF8);
+        connection.addListener(this::onPushMessage);
+        this.connection = connection;
+
+        // 先注册回调再遍历已有的缓存，重复的前缀只会开启一次
+        multiCacheManager.addCacheCreatedListener(this::track);
+        for (String cacheName : multiCacheManager.getCacheNames()) {
+            MultiCache cache = (MultiCache) multiCacheManager.getCache(cacheName);
+            if (cache != null) {
+                track(cache);
+            }
+        }
+    }
+
+    /**
+     * 为缓存的 key 前缀开启跟踪，同步等待完成，避免开启前读入本地缓存的值错过失效推送
+     */
+    private void track(MultiCache cache) {
+        String prefix = cache.getCachePrefix();
+        if (caches.putIfAbsent(prefix, cache) != null) {
+            return;
+        }
+        StatefulRedisConnection<String, String> connection = this.connection;
+        if (connection != null) {
+            connection.sync().clientTracking(TrackingArgs.Builder.enabled().bcast().prefixes(prefix));
+            log.debug("enable client tracking, the prefix is : {}", prefix);
+        }
+    }
+
+    private void onPushMessage(PushMessage message) {
+        if (!INVALIDATE.equals(message.getType())) {
+            return;
+        }
+        List<Object> content = message.getContent();
+        Object keys = content.size() > 1 ? content.get(1) : null;
+        if (!(keys instanceof List)) {
+            // FLUSHDB 或 FLUSHALL 时推送的 key 为 null
+            log.debug("receive a redis invalidation without keys, clear all local cache");
+            invalidateAll();
+            return;
+        }
+        for (Object key : (List<?>) keys) {
+            String redisKey = decode(key);
+            MultiCache cache = findCache(redisKey);
+            if (cache != null) {
+                log.debug("receive a redis invalidation, clear local cache, the key is : {}", redisKey);
+                cache.invalidateLocal(redisKey);
+            }
+        }
+    }
+
+    private static String decode(Object key) {
+        return key instanceof ByteBuffer ? StringCodec.UTF8.decodeKey((ByteBuffer) key) : String.valueOf(key);
+    }
+
+    /**
+     * 按最长的前缀匹配缓存
+     */
+    @Nullable
+    private MultiCache findCache(String redisKey) {
+        MultiCache found = null;
+        int foundLength = -1;
+        for (Map.Entry<String, MultiCache> entry : caches.entrySet()) {
+            String prefix = entry.getKey();
+            if (prefix.length() > foundLength && redisKey.startsWith(prefix)) {
+                found = entry.getValue();
+                foundLength = prefix.length();
+            }
+        }
+        return found;
+    }
+
+    private void invalidateAll() {
+        caches.values().forEach(MultiCache::invalidateLocalAll);
+    }
+
+    @Override
+    public void destroy() {
+        StatefulRedisConnection<String, String> connection = this.connection;
+        if (connection != null) {
+            connection.close();
+        }
+        redisClient.shutdown();
+    }
+
+    /**
+     * 重连后 Redis 不会保留原来连接的跟踪状态，需要重新开启
+     */
+    private class ReconnectListener implements RedisConnectionStateListener {
+
+        @Override
+        public void onRedisConnected(RedisChannelHandler<?, ?> handler, SocketAddress socketAddress) {
+            StatefulRedisConnection<String, String> connection = ClientTrackingListener.this.connection;
+            if (connection == null || !disconnected.compareAndSet(true, false) || caches.isEmpty()) {
+                return;
+            }
+            // 在 I/O 线程中回调，不能同步等待
+            String[] prefixes = caches.keySet().toArray(new String[0]);
+            connection.async()
+                    .clientTracking(TrackingArgs.Builder.enabled().bcast().prefixes(prefixes))
+                    .whenComplete((result, e) -> {
+                        if (e != null) {
+                            log.error("failed to enable client tracking after reconnecting", e);
+                        }
+                        invalidateAll();
+                    });
+        }
+
+        @Override
+        public void onRedisDisconnected(RedisChannelHandler<?, ?> handler) {
+            disconnected.set(true);
+            invalidateAll();
+        }
+
+        @Override
+        public void onRedisExceptionCaught(RedisChannelHandler<?, ?> handler, Throwable cause) {
+        }
+
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.github.yuefei7746.multicache.support;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 开启提前重算（XFetch）的缓存在 Redis 中保存的值，附带重算耗时与过期时间
+ *
+ * @author yuefei7746
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EarlyExpirationValue implements Serializable {
+
+    private static final long serialVersionUID = -3312072871356235415L;
+
+    private Object value;
+
+    /**
+     * 上一次计算该值的耗时，单位毫秒
+     */
+    private long delta;
+
+    /**
+     * Redis 中该值的过期时刻，单位毫秒
+     */
+    private long expireAt;
+
+}
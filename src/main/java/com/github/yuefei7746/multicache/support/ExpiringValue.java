@@ -0,0 +1,55 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.time.Duration;
+
+/**
+ * 开启 expireWithRedis 的缓存在本地缓存中保存的值，附带该值在 Redis 中的过期时刻
+ * <p>
+ * 只在当前进程内使用，不会写入 Redis。过期时刻与 Caffeine 默认的计时器一样基于 {@link System#nanoTime()}。
+ *
+ * @author yuefei7746
+ */
+final class ExpiringValue {
+
+    final Object value;
+
+    final long expireAt;
+
+    ExpiringValue(Object value, long expireAt) {
+        this.value = value;
+        this.expireAt = expireAt;
+    }
+
+    /**
+     * 每个值的本地过期时间取 maxLifetime 与 Redis 中剩余时间的较小值，读取不影响过期时间
+     *
+     * @param maxLifetime 为 0 时只按 Redis 中的剩余时间过期
+     */
+    static Expiry<Object, Object> expiry(Duration maxLifetime) {
+        long maxNanos = maxLifetime.isZero() ? Long.MAX_VALUE : maxLifetime.toNanos();
+        return new Expiry<Object, Object>() {
+
+            @Override
+            public long expireAfterCreate(Object key, Object value, long currentTime) {
+                if (!(value instanceof ExpiringValue)) {
+                    return maxNanos;
+                }
+                return Math.max(0, Math.min(maxNanos, ((ExpiringValue) value).expireAt - currentTime));
+            }
+
+            @Override
+            public long expireAfterUpdate(Object key, Object value, long currentTime, long currentDuration) {
+                return expireAfterCreate(key, value, currentTime);
+            }
+
+            @Override
+            public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+                return currentDuration;
+            }
+
+        };
+    }
+
+}
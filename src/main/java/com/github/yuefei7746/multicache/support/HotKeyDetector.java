@@ -0,0 +1,134 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 通过采样与 Count-Min Sketch 估计 key 的访问频率，找出访问量超过阈值的热点 key
+ * <p>
+ * 每 sampleRate 次访问随机记录一次，sketch 的计数器不加锁，并发下偶尔丢失的计数只会让估计值略微偏小。
+ * 记录次数达到 window 后所有计数减半，热点 key 在访问量下降后的两个窗口内逐渐退出。
+ *
+ * @author yuefei7746
+ */
+final class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int[] table;
+
+    private final int mask;
+
+    private final int sampleRate;
+
+    private final int window;
+
+    private final int threshold;
+
+    private final int maxHotKeys;
+
+    private final AtomicInteger samples = new AtomicInteger();
+
+    /**
+     * 热点 key 与最近一次的估计访问次数
+     */
+    private final Map<Object, Integer> hotKeys = new ConcurrentHashMap<>();
+
+    HotKeyDetector(MultiCacheProperty.HotKeyProperty property) {
+        this.sampleRate = Math.max(1, property.getSampleRate());
+        this.window = Math.max(1, property.getWindow());
+        this.threshold = Math.max(1, (int) (window * property.getThreshold()));
+        this.maxHotKeys = Math.max(1, property.getMaxHotKeys());
+        // 宽度约为窗口的 1/4，估计值的误差大约在窗口的 1% 以内
+        int width = Integer.highestOneBit(Math.max(64, window / 4) * 2 - 1);
+        this.table = new int[DEPTH * width];
+        this.mask = width - 1;
+    }
+
+    /**
+     * 在读取路径上调用，按采样率记录一次访问
+     */
+    void record(Object key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        int hash = key.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            int count = table[index];
+            if (count < Integer.MAX_VALUE) {
+                table[index] = ++count;
+            }
+            estimate = Math.min(estimate, count);
+        }
+        if (estimate >= threshold) {
+            promote(key, estimate);
+        }
+        if (samples.incrementAndGet() == window) {
+            age();
+        }
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+        return (row * (mask + 1)) + ((h ^ (h >>> 16)) & mask);
+    }
+
+    private void promote(Object key, int estimate) {
+        if (hotKeys.replace(key, estimate) != null) {
+            return;
+        }
+        synchronized (hotKeys) {
+            if (hotKeys.size() >= maxHotKeys) {
+                // 热点 key 已满时替换估计次数最少的 key
+                Map.Entry<Object, Integer> coldest = null;
+                for (Map.Entry<Object, Integer> entry : hotKeys.entrySet()) {
+                    if (coldest == null || entry.getValue() < coldest.getValue()) {
+                        coldest = entry;
+                    }
+                }
+                if (coldest == null || coldest.getValue() >= estimate) {
+                    return;
+                }
+                hotKeys.remove(coldest.getKey());
+            }
+            hotKeys.put(key, estimate);
+        }
+    }
+
+    /**
+     * 所有计数减半，已经降到阈值一半以下的热点 key 不再视为热点
+     */
+    private synchronized void age() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+        int minimum = threshold >>> 1;
+        synchronized (hotKeys) {
+            hotKeys.replaceAll((key, count) -> count >>> 1);
+            hotKeys.values().removeIf(count -> count < minimum);
+        }
+        samples.set(0);
+    }
+
+    /**
+     * @return 当前的热点 key，按估计的访问次数从多到少排列
+     */
+    List<Object> getHotKeys() {
+        List<Map.Entry<Object, Integer>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort(Map.Entry.<Object, Integer>comparingByValue().reversed());
+        List<Object> keys = new ArrayList<>(entries.size());
+        entries.forEach(entry -> keys.add(entry.getKey()));
+        return keys;
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.github.yuefei7746.multicache.support;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 通过 JMX 查看各缓存当前的热点 key，需要开启 spring.jmx.enabled
+ * <p>
+ * key 以 toString 的结果展示，按估计的访问次数从多到少排列。
+ *
+ * @author yuefei7746
+ */
+@ManagedResource(objectName = "com.github.yuefei7746.multicache:type=HotKeys",
+        description = "Hot keys detected by each multi cache")
+public class HotKeyEndpoint {
+
+    private final MultiCacheManager multiCacheManager;
+
+    public HotKeyEndpoint(MultiCacheManager multiCacheManager) {
+        this.multiCacheManager = multiCacheManager;
+    }
+
+    @ManagedAttribute(description = "Hot keys of all caches")
+    public Map<String, List<String>> getHotKeys() {
+        Map<String, List<String>> hotKeys = new LinkedHashMap<>();
+        for (String cacheName : new TreeSet<>(multiCacheManager.getCacheNames())) {
+            hotKeys.put(cacheName, hotKeys(cacheName));
+        }
+        return hotKeys;
+    }
+
+    @ManagedOperation(description = "Hot keys of the cache")
+    @ManagedOperationParameter(name = "cacheName", description = "The cache name")
+    public List<String> hotKeys(String cacheName) {
+        List<Object> keys = multiCacheManager.getHotKeys(cacheName);
+        List<String> result = new ArrayList<>(keys.size());
+        keys.forEach(key -> result.add(String.valueOf(key)));
+        return result;
+    }
+
+}
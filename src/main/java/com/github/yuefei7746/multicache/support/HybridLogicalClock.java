@@ -0,0 +1,33 @@
+package com.github.yuefei7746.multicache.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 混合逻辑时钟，为缓存写入生成版本号
+ * <p>
+ * 版本号的高位是毫秒时间戳，低 16 位是同一毫秒内的逻辑计数。生成的版本号单调递增，
+ * 并且大于当前节点见过的所有版本号，因此读到或收到其他节点的写入后，本节点之后的写入一定有更新的版本。
+ *
+ * @author yuefei7746
+ */
+final class HybridLogicalClock {
+
+    private static final int LOGICAL_BITS = 16;
+
+    private final AtomicLong last = new AtomicLong();
+
+    long next() {
+        long physical = System.currentTimeMillis() << LOGICAL_BITS;
+        return last.updateAndGet(l -> Math.max(l + 1, physical));
+    }
+
+    /**
+     * 记录从 Redis 或其他节点得到的版本号
+     */
+    void observe(long version) {
+        if (version > last.get()) {
+            last.accumulateAndGet(version, Math::max);
+        }
+    }
+
+}
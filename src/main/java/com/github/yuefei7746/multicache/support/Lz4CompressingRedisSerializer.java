@@ -0,0 +1,88 @@
+package com.github.yuefei7746.multicache.support;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.lang.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 对序列化结果超过阈值的值使用 LZ4 压缩的 RedisSerializer
+ * <p>
+ * 压缩后的数据以 4 字节魔数和原始长度开头，反序列化时没有魔数的数据直接交给被包装的序列化器，
+ * 因此开启或关闭压缩都可以读取 Redis 中已有的数据。
+ *
+ * @author yuefei7746
+ */
+public class Lz4CompressingRedisSerializer implements RedisSerializer<Object> {
+
+    private static final byte[] MAGIC = {0, 'L', 'Z', '4'};
+
+    private static final int HEADER_LENGTH = MAGIC.length + Integer.BYTES;
+
+    private final RedisSerializer<Object> delegate;
+
+    private final int threshold;
+
+    private final LZ4Compressor compressor;
+
+    private final LZ4FastDecompressor decompressor;
+
+    public Lz4CompressingRedisSerializer(RedisSerializer<Object> delegate, int threshold) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.fastDecompressor();
+    }
+
+    @Override
+    @Nullable
+    public byte[] serialize(@Nullable Object value) throws SerializationException {
+        byte[] bytes = delegate.serialize(value);
+        if (bytes == null || bytes.length < threshold) {
+            return bytes;
+        }
+        int maxLength = compressor.maxCompressedLength(bytes.length);
+        byte[] compressed = new byte[HEADER_LENGTH + maxLength];
+        int length = compressor.compress(bytes, 0, bytes.length, compressed, HEADER_LENGTH, maxLength);
+        if (HEADER_LENGTH + length >= bytes.length) {
+            // 压缩没有收益时保留原始数据
+            return bytes;
+        }
+        ByteBuffer.wrap(compressed).put(MAGIC).putInt(bytes.length);
+        byte[] result = new byte[HEADER_LENGTH + length];
+        System.arraycopy(compressed, 0, result, 0, result.length);
+        return result;
+    }
+
+    @Override
+    @Nullable
+    public Object deserialize(@Nullable byte[] bytes) throws SerializationException {
+        if (!isCompressed(bytes)) {
+            return delegate.deserialize(bytes);
+        }
+        int length = ByteBuffer.wrap(bytes, MAGIC.length, Integer.BYTES).getInt();
+        try {
+            return delegate.deserialize(decompressor.decompress(bytes, HEADER_LENGTH, length));
+        } catch (RuntimeException e) {
+            throw new SerializationException("Could not decompress LZ4 value", e);
+        }
+    }
+
+    private static boolean isCompressed(@Nullable byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.github.yuefei7746.multicache.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 按缓存名与 key 分区处理 topic 或 Stream 消息，每个分区一个线程与一个有界队列，同一个 key 的消息按接收顺序处理
+ * <p>
+ * 分区的队列已满时丢弃消息并清空该缓存的本地缓存。此时队列中还有更早的消息没有处理，它们可能把旧值写回本地缓存，
+ * 因此该分区的队列处理完之后会再清空一次。
+ *
+ * @author yuefei7746
+ */
+@Slf4j
+final class MessageDispatcher {
+
+    private final Partition[] partitions;
+
+    private final Consumer<String> invalidateAll;
+
+    /**
+     * @param threads       分区数，会向上取整为 2 的幂
+     * @param invalidateAll 按缓存名清空本地缓存
+     */
+    MessageDispatcher(int threads, int queueCapacity, Consumer<String> invalidateAll) {
+        int count = Integer.highestOneBit(Math.max(1, threads) * 2 - 1);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-cache-message-");
+        threadFactory.setDaemon(true);
+        this.partitions = new Partition[count];
+        for (int i = 0; i < count; i++) {
+            this.partitions[i] = new Partition(Math.max(1, queueCapacity), threadFactory);
+        }
+        this.invalidateAll = invalidateAll;
+    }
+
+    /**
+     * @return 分区的队列已满时返回 false，此时已经清空了该缓存的本地缓存
+     */
+    boolean dispatch(String cacheName, @Nullable Object key, Runnable task) {
+        int hash = cacheName.hashCode() * 31 + (key == null ? 0 : key.hashCode());
+        Partition partition = partitions[(hash ^ (hash >>> 16)) & (partitions.length - 1)];
+        try {
+            partition.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("failed to handle the topic message of cache {}", cacheName, e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            partition.overflowed.add(cacheName);
+            invalidateAll.accept(cacheName);
+            return false;
+        }
+    }
+
+    /**
+     * 立即清空缓存的本地缓存，有消息等待处理的分区在队列处理完之后会再清空一次
+     */
+    void invalidateAll(String cacheName) {
+        for (Partition partition : partitions) {
+            if (partition.getActiveCount() > 0 || !partition.getQueue().isEmpty()) {
+                partition.overflowed.add(cacheName);
+            }
+        }
+        invalidateAll.accept(cacheName);
+    }
+
+    int getPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * @return 分区中等待处理的消息数
+     */
+    int getPendingMessages(int partition) {
+        return partitions[partition].getQueue().size();
+    }
+
+    void shutdown() {
+        for (Partition partition : partitions) {
+            partition.shutdownNow();
+        }
+    }
+
+    private final class Partition extends ThreadPoolExecutor {
+
+        /**
+         * 队列已满时丢弃过消息，或者从外部清空过的缓存
+         */
+        private final Set<String> overflowed = ConcurrentHashMap.newKeySet();
+
+        private Partition(int queueCapacity, CustomizableThreadFactory threadFactory) {
+            super(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            if (overflowed.isEmpty() || !getQueue().isEmpty()) {
+                return;
+            }
+            // 清空本地缓存之前进入队列的消息都已经处理完
+            for (Iterator<String> it = overflowed.iterator(); it.hasNext(); ) {
+                String cacheName = it.next();
+                it.remove();
+                invalidateAll.accept(cacheName);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.github.yuefei7746.multicache.support;
+
+import java.util.UUID;
+
+/**
+ * 发布 topic 消息的节点，每个 {@link MultiCacheManager} 一个
+ * <p>
+ * 消息中带有节点 ID，接收方据此丢弃自己发布的消息。节点内的缓存共用同一个生成版本号的时钟。
+ *
+ * @author yuefei7746
+ */
+public final class MessageOrigin {
+
+    private final String id = UUID.randomUUID().toString();
+
+    private final HybridLogicalClock clock = new HybridLogicalClock();
+
+    public String getId() {
+        return id;
+    }
+
+    HybridLogicalClock getClock() {
+        return clock;
+    }
+
+    /**
+     * 是否由当前节点发布
+     */
+    public boolean isOrigin(TopicMessage message) {
+        return id.equals(message.getOrigin());
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按失效方式发送序列化后的消息：TOPIC 模式下 PUBLISH 到 topic，STREAM 模式下 XADD 到有长度上限的 Stream
+ * <p>
+ * 可以在 pipeline 中调用。
+ *
+ * @author yuefei7746
+ */
+final class MessageSender {
+
+    /**
+     * Stream 中每条消息只有这一个字段，值为序列化后的 {@link TopicMessage}
+     */
+    static final byte[] MESSAGE_FIELD = "m".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] MAXLEN = "MAXLEN".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] APPROXIMATE = "~".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] AUTO_ID = "*".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] rawChannel;
+
+    /**
+     * 为 null 时发布到 topic
+     */
+    @Nullable
+    private final byte[] rawMaxLength;
+
+    MessageSender(RedisTemplate<Object, Object> redisTemplate, MultiCacheProperty.RedisProperty redisProperty) {
+        RedisSerializer<String> stringSerializer = redisTemplate.getStringSerializer();
+        if (redisProperty.getInvalidation() == MultiCacheProperty.InvalidationMode.STREAM) {
+            MultiCacheProperty.StreamProperty streamProperty = redisProperty.getStream();
+            this.rawChannel = stringSerializer.serialize(streamProperty.getKey());
+            this.rawMaxLength = String.valueOf(streamProperty.getMaxLength()).getBytes(StandardCharsets.UTF_8);
+        } else {
+            this.rawChannel = stringSerializer.serialize(redisProperty.getTopic());
+            this.rawMaxLength = null;
+        }
+    }
+
+    /**
+     * XADD key MAXLEN ~ maxLength * m message，近似裁剪只删除整个内部节点，比精确裁剪的开销小得多
+     */
+    void send(RedisConnection connection, byte[] rawMessage) {
+        if (rawMaxLength == null) {
+            connection.publish(rawChannel, rawMessage);
+        } else {
+            connection.execute("XADD", rawChannel, MAXLEN, APPROXIMATE, rawMaxLength, AUTO_ID,
+                    MESSAGE_FIELD, rawMessage);
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * 基于 Micrometer 的缓存指标，所有指标都带有 cache 标签
+ * <ul>
+ *     <li>cache.gets、cache.evictions 等：本地缓存的命中、未命中与淘汰，由 {@link CaffeineCacheMetrics} 注册</li>
+ *     <li>multi.cache.redis.gets：本地缓存未命中后读取 Redis 的命中与未命中次数</li>
+ *     <li>multi.cache.offheap.gets：本地缓存未命中后读取堆外缓存的命中与未命中次数</li>
+ *     <li>multi.cache.redis.operations：按 operation 区分的 Redis 调用耗时</li>
+ *     <li>multi.cache.loads：加载函数的耗时分布，按 result 区分成功与失败</li>
+ *     <li>multi.cache.lock.wait：等待分段锁的耗时</li>
+ *     <li>multi.cache.messages.sent、multi.cache.messages.received：topic 消息的条数与字节数</li>
+ *     <li>multi.cache.messages.dropped：处理队列已满时丢弃的 topic 消息数</li>
+ *     <li>multi.cache.messages.pending：按 partition 区分的等待处理的 topic 消息数，不带 cache 标签</li>
+ *     <li>multi.cache.bloom.rejected：布隆过滤器判断为不存在的 key 数</li>
+ * </ul>
+ * 每个缓存的指标在创建缓存时注册一次，读写路径上只有计数与计时。
+ *
+ * @author yuefei7746
+ */
+public class MicrometerMultiCacheMetrics implements MultiCacheMetrics {
+
+    private final MeterRegistry registry;
+
+    public MicrometerMultiCacheMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public CacheMetrics bind(String cacheName, Cache<Object, Object> caffeineCache) {
+        CaffeineCacheMetrics.monitor(registry, caffeineCache, cacheName);
+        return new MicrometerCacheMetrics(registry, Tags.of("cache", cacheName));
+    }
+
+    @Override
+    public void bindMessageQueue(int partition, IntSupplier pendingMessages) {
+        Gauge.builder("multi.cache.messages.pending", pendingMessages, IntSupplier::getAsInt)
+                .description("Topic messages waiting to be applied")
+                .tag("partition", String.valueOf(partition))
+                .strongReference(true)
+                .register(registry);
+    }
+
+    private static final class MicrometerCacheMetrics implements CacheMetrics {
+
+        private final Map<RedisOperation, Timer> redisTimers = new EnumMap<>(RedisOperation.class);
+
+        private final Counter redisHits;
+
+        private final Counter redisMisses;
+
+        private final Counter offHeapHits;
+
+        private final Counter offHeapMisses;
+
+        private final Timer loadSuccess;
+
+        private final Timer loadFailure;
+
+        private final Timer lockWait;
+
+        private final DistributionSummary messagesSent;
+
+        private final DistributionSummary messagesReceived;
+
+        private final Counter messagesDropped;
+
+        private final Counter bloomRejected;
+
+        private MicrometerCacheMetrics(MeterRegistry registry, Tags tags) {
+            for (RedisOperation operation : RedisOperation.values()) {
+                redisTimers.put(operation, Timer.builder("multi.cache.redis.operations")
+                        .description("Redis calls made by the cache")
+                        .tags(tags).tag("operation", operation.name().toLowerCase(Locale.ROOT))
+                        .register(registry));
+            }
+            this.redisHits = redisGets(registry, tags, "hit");
+            this.redisMisses = redisGets(registry, tags, "miss");
+            this.offHeapHits = offHeapGets(registry, tags, "hit");
+            this.offHeapMisses = offHeapGets(registry, tags, "miss");
+            this.loadSuccess = loads(registry, tags, "success");
+            this.loadFailure = loads(registry, tags, "failure");
+            this.lockWait = Timer.builder("multi.cache.lock.wait")
+                    .description("Time spent waiting for the key stripe lock")
+                    .tags(tags)
+                    .register(registry);
+            this.messagesSent = messages(registry, tags, "multi.cache.messages.sent", "Topic messages published");
+            this.messagesReceived =
+                    messages(registry, tags, "multi.cache.messages.received", "Topic messages received");
+            this.messagesDropped = Counter.builder("multi.cache.messages.dropped")
+                    .description("Topic messages dropped because the dispatch queue was full")
+                    .tags(tags)
+                    .register(registry);
+            this.bloomRejected = Counter.builder("multi.cache.bloom.rejected")
+                    .description("Lookups of keys that the Bloom filter reported as absent")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        private static Counter redisGets(MeterRegistry registry, Tags tags, String result) {
+            return Counter.builder("multi.cache.redis.gets")
+                    .description("Redis reads after a local cache miss")
+                    .tags(tags).tag("result", result)
+                    .register(registry);
+        }
+
+        private static Counter offHeapGets(MeterRegistry registry, Tags tags, String result) {
+            return Counter.builder("multi.cache.offheap.gets")
+                    .description("Off-heap reads after a local cache miss")
+                    .tags(tags).tag("result", result)
+                    .register(registry);
+        }
+
+        private static Timer loads(MeterRegistry registry, Tags tags, String result) {
+            return Timer.builder("multi.cache.loads")
+                    .description("Time spent in value loaders")
+                    .tags(tags).tag("result", result)
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+
+        private static DistributionSummary messages(MeterRegistry registry, Tags tags, String name,
+                                                    String description) {
+            return DistributionSummary.builder(name)
+                    .description(description)
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        @Override
+        public void redisCall(RedisOperation operation, long nanos) {
+            redisTimers.get(operation).record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void redisGet(int hits, int misses) {
+            if (hits > 0) {
+                redisHits.increment(hits);
+            }
+            if (misses > 0) {
+                redisMisses.increment(misses);
+            }
+        }
+
+        @Override
+        public void offHeapGet(int hits, int misses) {
+            if (hits > 0) {
+                offHeapHits.increment(hits);
+            }
+            if (misses > 0) {
+                offHeapMisses.increment(misses);
+            }
+        }
+
+        @Override
+        public void load(long nanos, boolean success) {
+            (success ? loadSuccess : loadFailure).record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void lockWait(long nanos) {
+            lockWait.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void messageSent(int bytes) {
+            messagesSent.record(bytes);
+        }
+
+        @Override
+        public void messageReceived(int bytes) {
+            messagesReceived.record(bytes);
+        }
+
+        @Override
+        public void messageDropped() {
+            messagesDropped.increment();
+        }
+
+        @Override
+        public void bloomFilterRejected() {
+            bloomRejected.increment();
+        }
+
+    }
+
+}
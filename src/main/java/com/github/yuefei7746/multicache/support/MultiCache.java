@@ -1,34 +1,40 @@
 package com.github.yuefei7746.multicache.support;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Weigher;
 import com.github.yuefei7746.multicache.MultiCacheProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.cache.interceptor.SimpleKey;
 import org.springframework.cache.support.AbstractValueAdaptingCache;
 import org.springframework.cache.support.NullValue;
-import org.springframework.core.convert.ConversionFailedException;
-import org.springframework.core.convert.ConversionService;
-import org.springframework.core.convert.TypeDescriptor;
-import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
-import org.springframework.format.support.DefaultFormattingConversionService;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.lang.Nullable;
-import org.springframework.util.ObjectUtils;
-import org.springframework.util.ReflectionUtils;
+import org.springframework.util.unit.DataSize;
 
-import java.lang.reflect.Method;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author yuefei7746
@@ -39,9 +45,27 @@ public class MultiCache extends AbstractValueAdaptingCache {
 
     private static final ThreadLocalRandom expireRandom = ThreadLocalRandom.current();
 
+    /**
+     * 记录重算开始时间的 key 数量上限与保留时间
+     */
+    private static final int RECOMPUTE_TRACKING_SIZE = 10_000;
+    private static final Duration RECOMPUTE_TRACKING_TIME = Duration.ofMinutes(1);
+
+    /**
+     * 堆外缓存中每个值之前的版本号与 Redis 中的过期时刻
+     */
+    private static final int OFF_HEAP_HEADER_BYTES = Long.BYTES * 2;
+
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    /**
+     * 写入已有的 key 时每次 pipeline 设置的 key 数
+     */
+    private static final int BLOOM_BATCH_SIZE = 1000;
+
     private final String name;
 
-    private final ReadWriteLock lock;
+    private final StripedLock lock;
 
     private final RedisTemplate<Object, Object> redisTemplate;
 
@@ -52,28 +76,247 @@ public class MultiCache extends AbstractValueAdaptingCache {
 
     private final String cachePrefix;
 
-    private final String redisTopicKey;
+    private final MessageSender messageSender;
 
     private long minRedisExpire;
     private long maxRedisExpire;
 
-    private final ConversionService redisKeyConverter;
+    private final RedisKeyEncoder redisKeyEncoder = RedisKeyEncoder.getInstance();
+
+    @Nullable
+    private final WriteBehindQueue writeBehindQueue;
+
+    @Nullable
+    private final RedisSingleFlight singleFlight;
+
+    /**
+     * 提前重算（XFetch）的 beta 系数，不大于 0 时不开启
+     */
+    private final double earlyExpirationBeta;
+
+    /**
+     * lookup 未命中时记录的开始时间，用于计算之后 put 的重算耗时
+     */
+    @Nullable
+    private final Cache<Object, Long> recomputeStarts;
+
+    @Nullable
+    private final Executor clearExecutor;
+
+    private final int clearBatchSize;
+
+    private final CacheMetrics metrics;
+
+    private final MessageOrigin origin;
+
+    /**
+     * 是否为每次写入生成版本号，本地缓存中的值包装为 {@link VersionedValue}
+     */
+    private final boolean versioned;
+
+    /**
+     * 本地缓存中的值是否不超过其在 Redis 中的剩余时间，本地缓存中的值包装为 {@link ExpiringValue}
+     */
+    private final boolean expireWithRedis;
+
+    private final HybridLogicalClock clock;
+
+    private final RedisSerializer<Object> valueSerializer;
+
+    /**
+     * 是否由 Redis 的客户端缓存推送失效消息，此时不发布 topic 消息，本地缓存的 key 包装为 {@link TrackedKey}
+     */
+    private final boolean clientTracking;
+
+    /**
+     * Caffeine 按容量淘汰的值的去处，为 null 时没有开启堆外缓存
+     */
+    @Nullable
+    private final OffHeapStore offHeapStore;
+
+    /**
+     * 按 Redis key 保存 Caffeine 中过期的值，在 staleIfError 时间内读取失败时返回，为 null 时没有开启
+     */
+    @Nullable
+    private final Cache<String, Object> staleValues;
+
+    /**
+     * 为 null 时没有开启热点 key 探测
+     */
+    @Nullable
+    private final HotKeyDetector hotKeyDetector;
+
+    /**
+     * 执行异步方法中阻塞的 Redis 调用
+     */
+    private final Executor asyncExecutor;
+
+    /**
+     * 正在异步加载的 key，同一个 key 的并发加载共用一个 future
+     */
+    private final Map<Object, CompletableFuture<Object>> loadingFutures = new ConcurrentHashMap<>();
+
+    /**
+     * 为 null 时没有开启熔断
+     */
+    @Nullable
+    private final RedisCircuitBreaker circuitBreaker;
+
+    /**
+     * 熔断期间没有写入 Redis 的 key，恢复后删除
+     */
+    private final Set<String> skippedKeys = ConcurrentHashMap.newKeySet();
+
+    private final int maxSkippedKeys;
+
+    /**
+     * 熔断期间跳过的 key 超过上限或跳过了 clear，恢复后按前缀删除整个缓存
+     */
+    private volatile boolean skippedAll;
+
+    /**
+     * 熔断期间有没有发布的消息，恢复后通知其他节点清空本地缓存
+     */
+    private volatile boolean skippedMessages;
+
+    /**
+     * 其他节点的消息、失效推送或清空修改本地缓存的次数，在修改之前递增
+     * <p>
+     * 热点 key 刷新在读取 Redis 之前记录，写回本地缓存时已经变化说明读到的值可能已经过时。
+     */
+    private final AtomicLong localInvalidations = new AtomicLong();
+
+    /**
+     * 为 null 时没有开启布隆过滤器
+     */
+    @Nullable
+    private final BloomFilter bloomFilter;
+
+    /**
+     * 位图还不存在或熔断期间没有写入 Redis 的 key，同步时看到位图后补写
+     */
+    private final Set<String> pendingBloomKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 空值标记在 Redis 中保存的毫秒数，为 0 时空值不写入 Redis
+     */
+    private final long nullValueExpire;
+
+    /**
+     * 后台刷新时 Redis 中没有值的情况下使用的加载函数
+     */
+    @Nullable
+    private volatile Function<Object, ?> refreshLoader;
 
     public MultiCache(String name,
                       RedisTemplate<Object, Object> redisTemplate,
                       MultiCacheProperty multiCacheProperty) {
+        this(name, redisTemplate, multiCacheProperty, MultiCacheResources.none());
+    }
+
+    /**
+     * @param resources 由 {@link MultiCacheManager} 共享的组件
+     */
+    @SuppressWarnings("unchecked")
+    public MultiCache(String name,
+                      RedisTemplate<Object, Object> redisTemplate,
+                      MultiCacheProperty multiCacheProperty,
+                      MultiCacheResources resources) {
         super(multiCacheProperty.isCacheNullValues());
         this.name = name;
-        this.lock = new ReentrantReadWriteLock();
+        this.lock = new StripedLock(multiCacheProperty.getLockStripes());
         this.redisTemplate = redisTemplate;
         this.opsForValue = redisTemplate.opsForValue();
-        this.caffeineCache = multiCacheProperty.getCaffeine().createCache();
-        this.cachePrefix = generateKeyPrefix(name, multiCacheProperty.getCachePrefix());
-
+        this.valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        MultiCacheMetrics multiCacheMetrics = resources.getMetrics();
+        MultiCacheProperty.CaffeineProperty caffeineProperty = multiCacheProperty.getCaffeine().forCache(name);
+        Weigher<Object, Object> weigher = caffeineProperty.getMaximumWeight() > 0
+                ? createWeigher(resources.getWeigher()) : null;
         MultiCacheProperty.RedisProperty redisProperty = multiCacheProperty.getRedis();
-        this.redisTopicKey = redisProperty.getTopic();
         initRedisExpire(name, redisProperty);
-        this.redisKeyConverter = generateRedisKeyConverter();
+        this.expireWithRedis = caffeineProperty.isExpireWithRedis();
+        this.offHeapStore = createOffHeapStore(name, multiCacheProperty.getOffHeap());
+        this.staleValues = createStaleValues(caffeineProperty);
+        this.caffeineCache = caffeineProperty.createCache(new RefreshLoader(), resources.getRefreshExecutor(),
+                multiCacheMetrics != null, weigher,
+                offHeapStore == null && staleValues == null ? null : new SpillingWriter(),
+                expireWithRedis ? ExpiringValue.expiry(caffeineProperty.getExpireAfterWrite()) : null);
+        this.metrics = multiCacheMetrics == null ? CacheMetrics.NONE : multiCacheMetrics.bind(name, caffeineCache);
+        this.cachePrefix = generateKeyPrefix(name, multiCacheProperty.getCachePrefix());
+
+        this.messageSender = new MessageSender(redisTemplate, redisProperty);
+        this.writeBehindQueue = resources.getWriteBehindQueue();
+        this.nullValueExpire = isAllowNullValues() ? Math.max(0, redisProperty.getNullValueExpiration().toMillis()) : 0;
+        this.singleFlight = redisProperty.getSingleFlight().isEnabled()
+                ? new RedisSingleFlight(redisTemplate, redisProperty.getSingleFlight(), nullValueExpire) : null;
+        this.earlyExpirationBeta = redisProperty.getEarlyExpirationBeta().getOrDefault(name, 0D);
+        this.recomputeStarts = earlyExpirationBeta > 0 ? Caffeine.newBuilder()
+                .maximumSize(RECOMPUTE_TRACKING_SIZE)
+                .expireAfterWrite(RECOMPUTE_TRACKING_TIME)
+                .build() : null;
+        this.clearExecutor = resources.getClearExecutor();
+        this.clearBatchSize = Math.max(1, redisProperty.getClearBatchSize());
+        this.clientTracking = redisProperty.getInvalidation() == MultiCacheProperty.InvalidationMode.CLIENT_TRACKING;
+        this.origin = resources.getOrigin() == null ? new MessageOrigin() : resources.getOrigin();
+        this.versioned = redisProperty.isVersioned();
+        this.clock = origin.getClock();
+        this.hotKeyDetector = multiCacheProperty.getHotKey().isEnabled()
+                ? new HotKeyDetector(multiCacheProperty.getHotKey()) : null;
+        // 不使用 ForkJoinPool.commonPool()，阻塞的 Redis 调用会占满应用中其他代码共用的线程
+        this.asyncExecutor = resources.getAsyncExecutor() == null
+                ? MultiCacheManager.createAsyncExecutor(multiCacheProperty.getAsyncThreads())
+                : resources.getAsyncExecutor();
+        MultiCacheProperty.CircuitBreakerProperty circuitBreakerProperty = redisProperty.getCircuitBreaker();
+        this.circuitBreaker = resources.getCircuitBreaker() == null && circuitBreakerProperty.isEnabled()
+                ? new RedisCircuitBreaker(circuitBreakerProperty) : resources.getCircuitBreaker();
+        this.maxSkippedKeys = circuitBreakerProperty.getMaxSkippedKeys();
+        this.bloomFilter = createBloomFilter(redisTemplate, name, cachePrefix, multiCacheProperty.getBloomFilter());
+        if (circuitBreaker != null) {
+            circuitBreaker.addRecoveryListener(this::onRedisRecovered);
+        }
+    }
+
+    /**
+     * 权重函数看到的是原始的 key 与存储值，不包含本地缓存中的包装
+     */
+    private Weigher<Object, Object> createWeigher(@Nullable Weigher<Object, Object> weigher) {
+        Weigher<Object, Object> delegate = weigher == null ? new SerializedSizeWeigher(valueSerializer) : weigher;
+        return (localKey, localValue) -> delegate.weigh(fromLocalKey(localKey), fromLocalValue(localValue));
+    }
+
+    @Nullable
+    private static Cache<String, Object> createStaleValues(MultiCacheProperty.CaffeineProperty caffeineProperty) {
+        Duration staleIfError = caffeineProperty.getStaleIfError();
+        if (staleIfError.isZero() || staleIfError.isNegative()) {
+            return null;
+        }
+        return Caffeine.newBuilder()
+                .maximumSize(Math.max(1, caffeineProperty.getMaximumSize()))
+                .expireAfterWrite(staleIfError)
+                .build();
+    }
+
+    @Nullable
+    private static OffHeapStore createOffHeapStore(String cacheName, MultiCacheProperty.OffHeapProperty property) {
+        DataSize capacity = property.getCapacity().get(cacheName);
+        if (capacity == null || capacity.toBytes() <= 0) {
+            return null;
+        }
+        return new OffHeapStore(capacity.toBytes(), property.getSegments(), property.getExpireAfterWrite());
+    }
+
+    /**
+     * 位图的 key 不以 cachePrefix 开头，不会被 clear 删除
+     */
+    @Nullable
+    private static BloomFilter createBloomFilter(RedisTemplate<Object, Object> redisTemplate, String cacheName,
+                                                 String cachePrefix, MultiCacheProperty.BloomFilterProperty property) {
+        Long expectedInsertions = property.getExpectedInsertions().get(cacheName);
+        if (expectedInsertions == null || expectedInsertions <= 0) {
+            return null;
+        }
+        String redisKey = cachePrefix.substring(0, cachePrefix.length() - 2) + ":bloom";
+        return new BloomFilter(redisTemplate, redisKey, expectedInsertions, property.getFalsePositiveRate());
     }
 
     private static String generateKeyPrefix(String cacheName, @Nullable String configPrefix) {
@@ -97,13 +340,10 @@ public class MultiCache extends AbstractValueAdaptingCache {
     }
 
     /**
-     * @see RedisCacheConfiguration#defaultCacheConfig(ClassLoader)
+     * 设置后台刷新时 Redis 中没有值的情况下使用的加载函数，只在配置了 refreshAfterWrite 时生效
      */
-    private static ConversionService generateRedisKeyConverter() {
-        DefaultFormattingConversionService conversionService = new DefaultFormattingConversionService();
-        conversionService.addConverter(String.class, byte[].class, source -> source.getBytes(StandardCharsets.UTF_8));
-        conversionService.addConverter(SimpleKey.class, String.class, SimpleKey::toString);
-        return conversionService;
+    public void setRefreshLoader(@Nullable Function<Object, ?> refreshLoader) {
+        this.refreshLoader = refreshLoader;
     }
 
     @Override
@@ -118,12 +358,38 @@ public class MultiCache extends AbstractValueAdaptingCache {
 
     @Override
     protected Object lookup(Object key) {
-        Lock rl = lock.readLock();
+        recordAccess(key);
+        Object localKey = toLocalKey(key);
+        Lock rl = lock.get(key).readLock();
         try {
-            rl.lock();
-
-            // 此处只锁定读锁，写入时的同步交给 caffeine cache
-            return caffeineCache.get(key, k -> opsForValue.get(createRedisKey(k)));
+            acquire(rl);
+
+            // 此处只锁定 key 所在分段的读锁，写入时的同步交给 caffeine cache
+            Object localValue = caffeineCache.get(localKey, k -> {
+                String redisKey = toRedisKey(k);
+                Object offHeapValue = takeFromOffHeap(redisKey);
+                if (offHeapValue != null) {
+                    return offHeapValue;
+                }
+                Object redisValue = getFromRedis(redisKey);
+                if (redisValue == null && rejectedByBloomFilter(redisKey)) {
+                    return null;
+                }
+                if (redisValue == null || shouldRecomputeEarly(redisValue)) {
+                    // 返回未命中，由调用方重新计算后 put
+                    markRecomputeStart(key);
+                    return null;
+                }
+                return toLocalValue(redisValue);
+            });
+            if (localValue == null && bloomFilter != null && !bloomFilter.mightContain(toRedisKey(localKey))) {
+                // Redis 中也没有、一定不存在的 key 按空值返回，调用方不必再加载，也不写入本地缓存
+                return isAllowNullValues() ? NullValue.INSTANCE : null;
+            }
+            return fromLocalValue(localValue);
+        } catch (RuntimeException e) {
+            // 旧值只返回给调用方，不写回本地缓存，下一次读取会重新尝试
+            return staleOrThrow(key, e);
         } finally {
             rl.unlock();
         }
@@ -132,13 +398,16 @@ public class MultiCache extends AbstractValueAdaptingCache {
     @Override
     @SuppressWarnings("unchecked")
     public <T> T get(Object key, Callable<T> valueLoader) {
-        Lock rl = lock.readLock();
+        recordAccess(key);
+        Lock rl = lock.get(key).readLock();
         try {
-            rl.lock();
+            acquire(rl);
 
-            // 此处只锁定读锁，写入时的同步交给 caffeine cache
-            Object storeValue = caffeineCache.get(key, new LoadFunction(valueLoader));
-            return (T) fromStoreValue(storeValue);
+            // 此处只锁定 key 所在分段的读锁，写入时的同步交给 caffeine cache
+            Object localValue = caffeineCache.get(toLocalKey(key), new LoadFunction(valueLoader));
+            return (T) fromStoreValue(fromLocalValue(localValue));
+        } catch (RuntimeException e) {
+            return (T) fromStoreValue(staleOrThrow(key, e));
         } finally {
             rl.unlock();
         }
@@ -146,35 +415,136 @@ public class MultiCache extends AbstractValueAdaptingCache {
 
     @Override
     public void put(Object key, @Nullable Object value) {
-        Lock wl = this.lock.writeLock();
+        Lock wl = this.lock.get(key).writeLock();
         try {
-            wl.lock();
+            acquire(wl);
 
             Object storeValue = toStoreValue(value);
-            setToRedis(createRedisKey(key), storeValue);
-            pushRefresh(key, storeValue);
-            caffeineCache.put(key, storeValue);
+            long delta = takeRecomputeDelta(key);
+            long version = nextVersion();
+            String redisKey = createRedisKey(key);
+            if (useWriteBehind()) {
+                if (storeValue != NullValue.INSTANCE) {
+                    addBloomKeys(Collections.singletonList(redisKey));
+                }
+                caffeineCache.put(toLocalKey(key, redisKey), toLocalValue(storeValue, version));
+                writeBehindQueue.offer(createWrite(redisKey, storeValue, delta, version,
+                        refreshMessage(key, storeValue, version)).whenDropped(() -> onWriteDropped(key, redisKey)));
+                return;
+            }
+            setToRedis(redisKey, storeValue, delta, version);
+            pushRefresh(key, storeValue, version);
+            caffeineCache.put(toLocalKey(key, redisKey), toLocalValue(storeValue, version));
         } finally {
             wl.unlock();
         }
     }
 
+    /**
+     * 异步获取缓存，本地缓存命中时直接返回已完成的 future
+     * <p>
+     * 未命中时在异步线程池中依次读取堆外缓存与 Redis，仍未命中时调用 loader，加载完成后与 {@link #get(Object, Callable)}
+     * 一样写入 Redis 并通知其他节点。同一个 key 并发的异步加载共用一个 future，loader 只会调用一次。
+     *
+     * @param loader 返回加载结果的 future，不应阻塞调用线程
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> getAsync(Object key, Function<Object, ? extends CompletionStage<T>> loader) {
+        Object localValue = caffeineCache.getIfPresent(toLocalKey(key));
+        if (localValue != null) {
+            recordAccess(key);
+            return CompletableFuture.completedFuture((T) fromStoreValue(fromLocalValue(localValue)));
+        }
+        CompletableFuture<Object> loading = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loadingFutures.putIfAbsent(key, loading);
+        if (existing == null) {
+            loadAsync(key, loader).whenComplete((storeValue, e) -> {
+                loadingFutures.remove(key, loading);
+                if (e == null) {
+                    loading.complete(storeValue);
+                    return;
+                }
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (!(cause instanceof RuntimeException)) {
+                    loading.completeExceptionally(cause);
+                    return;
+                }
+                try {
+                    loading.complete(staleOrThrow(key, (RuntimeException) cause));
+                } catch (RuntimeException ex) {
+                    loading.completeExceptionally(ex);
+                }
+            });
+            existing = loading;
+        }
+        return existing.thenApply(storeValue -> (T) fromStoreValue(storeValue));
+    }
+
+    /**
+     * @return 存储值
+     */
+    private <T> CompletableFuture<Object> loadAsync(Object key, Function<Object, ? extends CompletionStage<T>> loader) {
+        return CompletableFuture.supplyAsync(() -> lookup(key), asyncExecutor).thenCompose(storeValue -> {
+            if (storeValue != null) {
+                return CompletableFuture.completedFuture(storeValue);
+            }
+            long start = System.nanoTime();
+            return loader.apply(key).toCompletableFuture()
+                    .whenComplete((value, e) -> metrics.load(System.nanoTime() - start, e == null))
+                    .thenApplyAsync(value -> putLoaded(key, value, start), asyncExecutor);
+        });
+    }
+
+    /**
+     * 与 {@link #get(Object, Callable)} 相同的写入过程，期间其他请求已经写入本地缓存或 Redis 时使用已有的值
+     *
+     * @return 存储值
+     */
+    private Object putLoaded(Object key, @Nullable Object value, long loadStart) {
+        // lookup 未命中时记录的开始时间已经不需要
+        takeRecomputeDelta(key);
+        Lock rl = lock.get(key).readLock();
+        try {
+            acquire(rl);
+
+            return fromLocalValue(caffeineCache.get(toLocalKey(key), new LoadFunction(() -> value, loadStart)));
+        } finally {
+            rl.unlock();
+        }
+    }
+
+    /**
+     * 在异步线程池中执行 {@link #put(Object, Object)}
+     * <p>
+     * 同一个 key 的多次异步写入与删除之间不保证顺序，需要保证顺序时等待上一次返回的 future 完成。
+     */
+    public CompletableFuture<Void> putAsync(Object key, @Nullable Object value) {
+        return CompletableFuture.runAsync(() -> put(key, value), asyncExecutor);
+    }
+
+    /**
+     * 在异步线程池中执行 {@link #evict(Object)}
+     *
+     * @see #putAsync(Object, Object)
+     */
+    public CompletableFuture<Void> evictAsync(Object key) {
+        return CompletableFuture.runAsync(() -> evict(key), asyncExecutor);
+    }
+
     @Override
     public ValueWrapper putIfAbsent(Object key, final @Nullable Object value) {
         PutIfAbsentFunction callable = new PutIfAbsentFunction(value);
-        Object result = caffeineCache.get(key, callable);
-        return (callable.called ? null : toValueWrapper(result));
+        Object result = caffeineCache.get(toLocalKey(key), callable);
+        return (callable.called ? null : toValueWrapper(fromLocalValue(result)));
     }
 
     @Override
     public void evict(Object key) {
-        Lock wl = this.lock.writeLock();
+        Lock wl = this.lock.get(key).writeLock();
         try {
-            wl.lock();
+            acquire(wl);
 
-            redisTemplate.delete(createRedisKey(key));
-            pushEvict(key);
-            caffeineCache.invalidate(key);
+            evictInternal(key);
         } finally {
             wl.unlock();
         }
@@ -186,199 +556,1269 @@ public class MultiCache extends AbstractValueAdaptingCache {
         if (lookup == null) {
             return false;
         }
-        Lock wl = this.lock.writeLock();
+        Lock wl = this.lock.get(key).writeLock();
         try {
-            wl.lock();
+            acquire(wl);
 
-            redisTemplate.delete(createRedisKey(key));
-            pushEvict(key);
-            caffeineCache.invalidate(key);
+            evictInternal(key);
         } finally {
             wl.unlock();
         }
         return true;
     }
 
-    @Override
-    public void clear() {
-        Lock wl = this.lock.writeLock();
-        try {
-            wl.lock();
-
-            redisTemplate.delete(createRedisKey("*"));
-            pushEvict(null);
-            caffeineCache.invalidateAll();
-        } finally {
-            wl.unlock();
-        }
-    }
-
-    public void pullMessage(TopicMessage msg) {
-        Object key = msg.getKey();
-        Object storeValue = msg.getValue();
-        if (key == null) {
-            log.debug("clear all local cache");
-            caffeineCache.invalidateAll();
-        } else if (storeValue == null) {
-            log.debug("clear local cache, the key is : {}", key);
-            caffeineCache.invalidate(key);
-        } else {
-            log.debug("refresh local cache, key : {}, value : {}",
-                    key, fromStoreValue(storeValue));
-            caffeineCache.put(key, storeValue);
-        }
-    }
-
-    private void setToRedis(String redisKey, Object storeValue) {
-        if (storeValue == NullValue.INSTANCE) {
+    private void evictInternal(Object key) {
+        String redisKey = createRedisKey(key);
+        long version = nextVersion();
+        removeSpilled(redisKey);
+        if (useWriteBehind()) {
+            caffeineCache.invalidate(toLocalKey(key, redisKey));
+            writeBehindQueue.offer(PipelinedWrite.delete(redisKey, evictMessage(key, version), metrics)
+                    .whenDropped(() -> onWriteDropped(key, redisKey)));
             return;
         }
-        opsForValue.set(redisKey, storeValue, getRedisExpire(), TimeUnit.MILLISECONDS);
+        deleteFromRedis(redisKey);
+        pushEvict(key, version);
+        caffeineCache.invalidate(toLocalKey(key, redisKey));
     }
 
     /**
-     * 使用 topic 确保 Redis 与 Caffeine 的最终一致性
+     * 清空缓存，Redis 中的数据在后台删除
+     *
+     * @see #clearAsync()
      */
-    private void pushEvict(@Nullable Object key) {
-        redisTemplate.convertAndSend(redisTopicKey, TopicMessage.create(this.name, key));
+    @Override
+    public void clear() {
+        clearAsync();
     }
 
     /**
-     * 使用 topic 确保 Redis 与 Caffeine 的最终一致性
+     * 清空缓存
+     * <p>
+     * 本地缓存与尚未写回的操作立即清除，Redis 中的数据通过 SCAN 与 UNLINK 分批删除，删除完成后再通知各节点清空本地缓存。
+     * 删除完成前其他请求仍可能从 Redis 读到旧值，当前节点在删除完成后持有全部分段锁再清空一次本地缓存，
+     * 正在读入的旧值不会留下；期间新写入的值也可能被一并删除，只会导致一次额外的未命中。
+     *
+     * @return Redis 中删除的 key 数
      */
-    private void pushRefresh(@Nullable Object key, Object value) {
-        redisTemplate.convertAndSend(redisTopicKey, TopicMessage.create(this.name, key, value));
-    }
-
-    private String createRedisKey(Object key) {
-        return cachePrefix.concat(convertKey(key));
-    }
+    public CompletableFuture<Long> clearAsync() {
+        long start = System.nanoTime();
+        lock.lockAll();
+        metrics.lockWait(System.nanoTime() - start);
+        try {
+            if (writeBehindQueue != null) {
+                writeBehindQueue.discard(cachePrefix);
+            }
+            invalidateLocalAll();
+        } finally {
+            lock.unlockAll();
+        }
 
-    private long getRedisExpire() {
-        return expireRandom.nextLong(minRedisExpire, maxRedisExpire);
+        Supplier<Long> unlink = () -> {
+            if (circuitBreaker != null && !circuitBreaker.isClosed()) {
+                // 熔断期间留到恢复后删除
+                skippedAll = true;
+                return 0L;
+            }
+            long unlinked = RedisKeyCleaner.unlinkByPrefix(redisTemplate, cachePrefix, clearBatchSize);
+            log.debug("unlinked {} keys of cache {}", unlinked, name);
+            pushEvict(null, nextVersion());
+            // 当前节点会丢弃自己的消息，由这里清除删除期间读入的旧值
+            lock.lockAll();
+            try {
+                invalidateLocalAll();
+            } finally {
+                lock.unlockAll();
+            }
+            return unlinked;
+        };
+        if (clearExecutor == null) {
+            return CompletableFuture.completedFuture(unlink.get());
+        }
+        CompletableFuture<Long> future = CompletableFuture.supplyAsync(unlink, clearExecutor);
+        future.whenComplete((unlinked, e) -> {
+            if (e != null) {
+                log.error("failed to clear the Redis keys of cache {}", name, e);
+            }
+        });
+        return future;
     }
 
     /**
-     * copy for org.springframework.data.redis.cache.RedisCache#convertKey(java.lang.Object)
+     * 批量获取缓存
+     * <p>
+     * 先读取本地缓存，未命中的 key 通过一次 MGET 从 Redis 读取，仍未命中的 key 一次性交给 bulkLoader 加载，
+     * 加载结果通过 pipeline 写回 Redis 并通知其他节点失效本地缓存。bulkLoader 返回结果中缺失的 key 视为空值。
+     *
+     * @return 按 keys 的顺序返回，不允许缓存空值时不包含空值的 key
      */
-    private String convertKey(Object key) {
-
-        if (key instanceof String) {
-            return (String) key;
+    @SuppressWarnings("unchecked")
+    public <T> Map<Object, T> getAll(Collection<?> keys,
+                                     Function<Set<Object>, Map<Object, T>> bulkLoader) {
+        Map<Object, Object> storeValues = new LinkedHashMap<>(keys.size());
+        Set<Object> misses = new LinkedHashSet<>();
+        for (Object key : keys) {
+            Object localValue = caffeineCache.getIfPresent(toLocalKey(key));
+            if (localValue != null) {
+                storeValues.put(key, fromLocalValue(localValue));
+            } else {
+                misses.add(key);
+            }
         }
 
-        TypeDescriptor source = TypeDescriptor.valueOf(key.getClass());
-
-        if (redisKeyConverter.canConvert(source, TypeDescriptor.valueOf(String.class))) {
+        if (!misses.isEmpty()) {
+            List<ReadWriteLock> locks = lock.getAll(misses);
+            locks.forEach(l -> acquire(l.readLock()));
             try {
-                return Objects.requireNonNull(redisKeyConverter.convert(key, String.class));
-            } catch (ConversionFailedException e) {
-
-                // may fail if the given key is a collection
-                if (source.isArray() || source.isCollection() || source.isMap()) {
-                    return convertCollectionLikeOrMapKey(key, source);
-                }
-
-                throw e;
+                loadAll(misses, bulkLoader).forEach((key, localValue) ->
+                        storeValues.put(key, fromLocalValue(localValue)));
+            } finally {
+                locks.forEach(l -> l.readLock().unlock());
+            }
+            if (bloomFilter != null && isAllowNullValues()) {
+                // 布隆过滤器判断一定不存在的 key 没有加载也没有写入本地缓存，同样按空值返回
+                misses.forEach(key -> storeValues.putIfAbsent(key, NullValue.INSTANCE));
             }
         }
 
-        Method toString = ReflectionUtils.findMethod(key.getClass(), "toString");
-
-        if (toString != null && !Object.class.equals(toString.getDeclaringClass())) {
-            return key.toString();
+        Map<Object, T> result = new LinkedHashMap<>(keys.size());
+        for (Object key : keys) {
+            Object storeValue = storeValues.get(key);
+            if (storeValue != null) {
+                result.put(key, (T) fromStoreValue(storeValue));
+            }
         }
-
-        throw new IllegalStateException(String.format(
-                "Cannot convert cache key %s to String. Please register a suitable Converter via 'RedisCacheConfiguration.configureKeyConverters(...)' or override '%s.toString()'.",
-                source, key.getClass().getSimpleName()));
+        return result;
     }
 
     /**
-     * copy for org.springframework.data.redis.cache.RedisCache#convertCollectionLikeOrMapKey(java.lang.Object, org.springframework.core.convert.TypeDescriptor)
+     * @return 本地缓存中的值
      */
-    private String convertCollectionLikeOrMapKey(Object key, TypeDescriptor source) {
-
-        if (source.isMap()) {
-
-            StringBuilder target = new StringBuilder("{");
-
-            for (Map.Entry<?, ?> entry : ((Map<?, ?>) key).entrySet()) {
-                target.append(convertKey(entry.getKey())).append("=").append(convertKey(entry.getValue()));
+    private <T> Map<Object, Object> loadAll(Set<Object> misses,
+                                            Function<Set<Object>, Map<Object, T>> bulkLoader) {
+        Map<Object, Object> loaded = new HashMap<>(misses.size());
+
+        List<Object> redisKeys = new ArrayList<>(misses.size());
+        for (Iterator<Object> keyIt = misses.iterator(); keyIt.hasNext(); ) {
+            Object key = keyIt.next();
+            String redisKey = createRedisKey(key);
+            Object offHeapValue = takeFromOffHeap(redisKey);
+            if (offHeapValue != null) {
+                loaded.put(key, offHeapValue);
+                keyIt.remove();
+            } else {
+                redisKeys.add(redisKey);
             }
-            target.append("}");
-
-            return target.toString();
-        } else if (source.isCollection() || source.isArray()) {
-
-            StringJoiner sj = new StringJoiner(",", "[", "]");
-
-            Collection<?> collection = source.isCollection() ? (Collection<?>) key
-                    : Arrays.asList(ObjectUtils.toObjectArray(key));
+        }
+        List<Object> redisValues = redisKeys.isEmpty() ? null : multiGetFromRedis(redisKeys);
+        if (redisValues != null) {
+            int hits = 0;
+            Iterator<Object> keyIt = misses.iterator();
+            for (int i = 0; keyIt.hasNext(); i++) {
+                Object key = keyIt.next();
+                Object redisValue = redisValues.get(i);
+                if (redisValue != null) {
+                    hits++;
+                }
+                if (redisValue != null && !shouldRecomputeEarly(redisValue)) {
+                    loaded.put(key, toLocalValue(redisValue));
+                    keyIt.remove();
+                }
+            }
+            metrics.redisGet(hits, redisKeys.size() - hits);
+        }
+        if (bloomFilter != null) {
+            // Redis 中也没有、一定不存在的 key 不交给 bulkLoader，也不写入本地缓存
+            misses.removeIf(key -> rejectedByBloomFilter(createRedisKey(key)));
+        }
 
-            for (Object val : collection) {
-                sj.add(convertKey(val));
+        if (!misses.isEmpty()) {
+            long start = System.nanoTime();
+            Map<Object, T> values;
+            try {
+                values = bulkLoader.apply(Collections.unmodifiableSet(misses));
+            } catch (RuntimeException | Error e) {
+                metrics.load(System.nanoTime() - start, false);
+                throw e;
+            }
+            metrics.load(System.nanoTime() - start, true);
+            long delta = elapsedMillis(start);
+            long version = nextVersion();
+            List<PipelinedWrite> writes = new ArrayList<>(misses.size());
+            List<String> loadedKeys = new ArrayList<>(misses.size());
+            for (Object key : misses) {
+                Object value = values == null ? null : values.get(key);
+                if (value == null && !isAllowNullValues()) {
+                    continue;
+                }
+                Object storeValue = toStoreValue(value);
+                String redisKey = createRedisKey(key);
+                if (value != null) {
+                    loadedKeys.add(redisKey);
+                }
+                loaded.put(key, toLocalValue(storeValue, version));
+                writes.add(createWrite(redisKey, storeValue, delta, version, evictMessage(key, version)));
             }
-            return sj.toString();
+            addBloomKeys(loadedKeys);
+            executeWrites(writes);
         }
 
-        throw new IllegalArgumentException(String.format("Cannot convert cache key %s to String.", key));
+        caffeineCache.putAll(toLocalKeys(loaded));
+        return loaded;
     }
 
-
     /**
-     * Like for org.springframework.cache.caffeine.CaffeineCache.PutIfAbsentFunction
+     * 批量写入缓存，对 Redis 的写入与 topic 通知通过一次 pipeline 提交
      */
-    private class PutIfAbsentFunction implements Function<Object, Object> {
-
-        @Nullable
-        private final Object value;
-
-        private boolean called;
-
-        public PutIfAbsentFunction(@Nullable Object value) {
-            this.value = value;
+    public void putAll(Map<?, ?> entries) {
+        if (entries.isEmpty()) {
+            return;
         }
-
-        /**
-         * caffeine 已经保证了会同步调用，不需要多余的同步控制
-         */
-        @Override
-        public Object apply(Object key) {
-            this.called = true;
-            return new LoadFunction(() -> value).apply(key);
+        long version = nextVersion();
+        Map<Object, Object> storeValues = new LinkedHashMap<>(entries.size());
+        List<PipelinedWrite> writes = new ArrayList<>(entries.size());
+        List<String> redisKeys = new ArrayList<>(entries.size());
+        entries.forEach((key, value) -> {
+            Object storeValue = toStoreValue(value);
+            String redisKey = createRedisKey(key);
+            if (value != null) {
+                redisKeys.add(redisKey);
+            }
+            storeValues.put(key, toLocalValue(storeValue, version));
+            writes.add(createWrite(redisKey, storeValue, takeRecomputeDelta(key), version,
+                    refreshMessage(key, storeValue, version)));
+        });
+        Map<Object, Object> localValues = toLocalKeys(storeValues);
+
+        List<ReadWriteLock> locks = lock.getAll(entries.keySet());
+        locks.forEach(l -> acquire(l.writeLock()));
+        try {
+            addBloomKeys(redisKeys);
+            if (useWriteBehind()) {
+                caffeineCache.putAll(localValues);
+                writes.forEach(writeBehindQueue::offer);
+                return;
+            }
+            executeWrites(writes);
+            caffeineCache.putAll(localValues);
+        } finally {
+            locks.forEach(l -> l.writeLock().unlock());
         }
     }
 
     /**
-     * Like for org.springframework.cache.caffeine.CaffeineCache.LoadFunction
+     * 批量删除缓存，对 Redis 的删除与 topic 通知通过一次 pipeline 提交
      */
-    private class LoadFunction implements Function<Object, Object> {
-
-        private final Callable<?> valueLoader;
-
-        public LoadFunction(Callable<?> valueLoader) {
-            this.valueLoader = valueLoader;
+    public void evictAll(Collection<?> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        long version = nextVersion();
+        List<PipelinedWrite> writes = new ArrayList<>(keys.size());
+        List<Object> localKeys = new ArrayList<>(keys.size());
+        for (Object key : keys) {
+            String redisKey = createRedisKey(key);
+            writes.add(PipelinedWrite.delete(redisKey, evictMessage(key, version), metrics));
+            localKeys.add(toLocalKey(key, redisKey));
+            removeSpilled(redisKey);
         }
 
-        /**
-         * caffeine 已经保证了会同步调用，不需要多余的同步控制
-         */
-        @Override
-        public Object apply(Object k) {
-            String redisKey = createRedisKey(k);
-            try {
-                Object storeValue = opsForValue.get(redisKey);
-                if (storeValue != null) {
-                    pushRefresh(k, storeValue);
-                    return storeValue;
-                }
-
-                Object calledValue = toStoreValue(this.valueLoader.call());
-                setToRedis(redisKey, calledValue);
-                pushRefresh(k, calledValue);
+        List<ReadWriteLock> locks = lock.getAll(keys);
+        locks.forEach(l -> acquire(l.writeLock()));
+        try {
+            if (useWriteBehind()) {
+                caffeineCache.invalidateAll(localKeys);
+                writes.forEach(writeBehindQueue::offer);
+                return;
+            }
+            executeWrites(writes);
+            caffeineCache.invalidateAll(localKeys);
+        } finally {
+            locks.forEach(l -> l.writeLock().unlock());
+        }
+    }
 
-                return calledValue;
+    public void pullMessage(TopicMessage msg) {
+        Object key = msg.getKey();
+        byte[] value = msg.getValue();
+        long version = msg.getVersion();
+        if (versioned) {
+            clock.observe(version);
+        }
+        localInvalidations.incrementAndGet();
+        if (key == null) {
+            log.debug("clear all local cache");
+            invalidateLocalAll();
+            return;
+        }
+        if (bloomFilter != null && value != null) {
+            // 其他节点新写入的 key 不必等到下一次同步位图，删除不加入，避免误判率随删除升高
+            bloomFilter.addLocal(createRedisKey(key));
+        }
+        if (offHeapStore != null || staleValues != null) {
+            // 堆外缓存中的值不论版本新旧都直接失效，只会导致一次额外的未命中
+            removeSpilled(createRedisKey(key));
+        }
+        if (value == null) {
+            log.debug("clear local cache, the key is : {}", key);
+            if (versioned) {
+                // 本地已有更新的版本时说明消息来晚了，保留本地的值
+                caffeineCache.asMap().computeIfPresent(toLocalKey(key),
+                        (k, current) -> versionOf(current) > version ? current : null);
+            } else {
+                caffeineCache.invalidate(toLocalKey(key));
+            }
+        } else {
+            Object storeValue = value.length == 0 ? NullValue.INSTANCE : valueSerializer.deserialize(value);
+            log.debug("refresh local cache, key : {}, value : {}",
+                    key, fromStoreValue(storeValue));
+            if (versioned) {
+                // 只替换已有的旧版本，不存在的 key 可能已经被更新的写入删除，留给读取时从 Redis 加载
+                caffeineCache.asMap().computeIfPresent(toLocalKey(key),
+                        (k, current) -> versionOf(current) > version ? current : toLocalValue(storeValue, version));
+            } else {
+                caffeineCache.put(toLocalKey(key), toLocalValue(storeValue, version));
+            }
+        }
+    }
+
+    private void recordAccess(Object key) {
+        if (hotKeyDetector != null) {
+            hotKeyDetector.record(key);
+        }
+    }
+
+    /**
+     * @return 当前的热点 key，按估计的访问次数从多到少排列，没有开启热点 key 探测时返回空列表
+     */
+    public List<Object> getHotKeys() {
+        return hotKeyDetector == null ? Collections.emptyList() : hotKeyDetector.getHotKeys();
+    }
+
+    /**
+     * 通过一次 MGET 重新读取热点 key 在 Redis 中的值并写回本地缓存，重置本地缓存的过期时间
+     * <p>
+     * 持有读锁，不会与当前节点的 put、evict 交错；其他节点的消息与失效推送不受锁的限制，
+     * 读取 Redis 之后收到过消息时放弃这一轮写回，避免旧值覆盖更新的值或失效。Redis 中没有值的 key 留给下一次读取时加载。
+     */
+    void refreshHotKeys() {
+        List<Object> hotKeys = getHotKeys();
+        if (hotKeys.isEmpty()) {
+            return;
+        }
+        List<ReadWriteLock> locks = lock.getAll(hotKeys);
+        locks.forEach(l -> acquire(l.readLock()));
+        try {
+            List<Object> redisKeys = new ArrayList<>(hotKeys.size());
+            for (Object key : hotKeys) {
+                redisKeys.add(createRedisKey(key));
+            }
+            long invalidations = localInvalidations.get();
+            List<Object> redisValues = multiGetFromRedis(redisKeys);
+            if (redisValues == null) {
+                return;
+            }
+            for (int i = 0; i < hotKeys.size(); i++) {
+                Object redisValue = redisValues.get(i);
+                if (redisValue == null) {
+                    continue;
+                }
+                String redisKey = (String) redisKeys.get(i);
+                Object localValue = toLocalValue(redisValue);
+                // 与消息对同一个 key 的修改互斥，计数在消息修改本地缓存之前递增
+                caffeineCache.asMap().compute(toLocalKey(hotKeys.get(i), redisKey), (k, current) -> {
+                    if (localInvalidations.get() != invalidations) {
+                        return current;
+                    }
+                    removeSpilled(redisKey);
+                    return current != null && versionOf(current) > versionOf(localValue) ? current : localValue;
+                });
+                if (localInvalidations.get() != invalidations) {
+                    log.debug("cache {} received messages while refreshing hot keys, skip the rest", name);
+                    return;
+                }
+            }
+            log.debug("refreshed {} hot keys of cache {}", redisKeys.size(), name);
+        } finally {
+            locks.forEach(l -> l.readLock().unlock());
+        }
+    }
+
+    /**
+     * 收到 Redis 客户端缓存的失效推送时按 Redis key 失效本地缓存
+     */
+    void invalidateLocal(String redisKey) {
+        if (clientTracking) {
+            localInvalidations.incrementAndGet();
+            if (bloomFilter != null) {
+                // 推送不区分写入与删除，宁可多加入也不能漏掉其他节点新写入的 key
+                bloomFilter.addLocal(redisKey);
+            }
+            caffeineCache.invalidate(new TrackedKey(redisKey, null));
+            removeSpilled(redisKey);
+        }
+    }
+
+    /**
+     * 异步写回最终失败时失效写入方的本地缓存，回到与 Redis 和其他节点一致的旧值
+     * <p>
+     * 在写回线程中调用，不获取分段锁，持有分段锁的写入线程可能正在等待队列腾出空间。
+     */
+    private void onWriteDropped(Object key, String redisKey) {
+        localInvalidations.incrementAndGet();
+        caffeineCache.invalidate(toLocalKey(key, redisKey));
+        removeSpilled(redisKey);
+    }
+
+    /**
+     * 失效全部本地缓存，用于失效推送可能丢失时，例如 Redis 连接断开或 FLUSHDB
+     */
+    void invalidateLocalAll() {
+        localInvalidations.incrementAndGet();
+        caffeineCache.invalidateAll();
+        if (offHeapStore != null) {
+            offHeapStore.clear();
+        }
+        if (staleValues != null) {
+            staleValues.invalidateAll();
+        }
+    }
+
+    String getCachePrefix() {
+        return cachePrefix;
+    }
+
+    CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 本地缓存中使用的 key，客户端缓存模式下包装为 {@link TrackedKey}
+     */
+    private Object toLocalKey(Object key) {
+        return clientTracking ? new TrackedKey(createRedisKey(key), key) : key;
+    }
+
+    private Object toLocalKey(Object key, String redisKey) {
+        return clientTracking ? new TrackedKey(redisKey, key) : key;
+    }
+
+    private Map<Object, Object> toLocalKeys(Map<Object, Object> storeValues) {
+        if (!clientTracking) {
+            return storeValues;
+        }
+        Map<Object, Object> localValues = new HashMap<>(storeValues.size());
+        storeValues.forEach((key, storeValue) -> localValues.put(toLocalKey(key), storeValue));
+        return localValues;
+    }
+
+    private static Object fromLocalKey(Object localKey) {
+        return localKey instanceof TrackedKey ? ((TrackedKey) localKey).getKey() : localKey;
+    }
+
+    /**
+     * 本地缓存的 key 对应的 Redis key，客户端缓存模式下不需要重新转换
+     */
+    private String toRedisKey(Object localKey) {
+        return localKey instanceof TrackedKey ? ((TrackedKey) localKey).getRedisKey() : createRedisKey(localKey);
+    }
+
+    /**
+     * @return 没有开启版本号时返回 0
+     */
+    private long nextVersion() {
+        return versioned ? clock.next() : 0;
+    }
+
+    /**
+     * 本地缓存中保存的值，开启版本号时包装为 {@link VersionedValue}
+     * <p>
+     * 开启 expireWithRedis 时再包装为 {@link ExpiringValue}，刚写入的值在 Redis 中至少保留 minRedisExpire。
+     */
+    private Object toLocalValue(Object storeValue, long version) {
+        return toLocalValue(storeValue, version, 0);
+    }
+
+    /**
+     * @param redisExpireAt 值在 Redis 中的过期时刻，为 0 时按 minRedisExpire 计算，只在开启 expireWithRedis 时使用
+     */
+    private Object toLocalValue(Object storeValue, long version, long redisExpireAt) {
+        Object localValue = versioned ? new VersionedValue(storeValue, version) : storeValue;
+        if (!expireWithRedis) {
+            return localValue;
+        }
+        return new ExpiringValue(localValue, redisExpireAt != 0
+                ? redisExpireAt : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(minRedisExpire));
+    }
+
+    /**
+     * 把从 Redis 读取的值转换为本地缓存中保存的值，没有版本号的值视为版本 0
+     * <p>
+     * Redis 中的过期时刻依次取自读取时的 PTTL、提前重算记录的过期时刻，都没有时按 minRedisExpire 计算。
+     */
+    private Object toLocalValue(Object redisValue) {
+        long redisExpireAt = 0;
+        if (redisValue instanceof ExpiringValue) {
+            redisExpireAt = ((ExpiringValue) redisValue).expireAt;
+            redisValue = ((ExpiringValue) redisValue).value;
+        }
+        long version = 0;
+        if (redisValue instanceof VersionedValue) {
+            version = ((VersionedValue) redisValue).getVersion();
+            redisValue = ((VersionedValue) redisValue).getValue();
+            clock.observe(version);
+        }
+        Object storeValue = redisValue;
+        if (redisValue instanceof EarlyExpirationValue) {
+            EarlyExpirationValue value = (EarlyExpirationValue) redisValue;
+            storeValue = value.getValue();
+            if (expireWithRedis && redisExpireAt == 0) {
+                redisExpireAt = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(value.getExpireAt() - System.currentTimeMillis());
+            }
+        }
+        return toLocalValue(storeValue, version, redisExpireAt);
+    }
+
+    @Nullable
+    private static Object fromLocalValue(@Nullable Object localValue) {
+        if (localValue instanceof ExpiringValue) {
+            localValue = ((ExpiringValue) localValue).value;
+        }
+        return localValue instanceof VersionedValue ? ((VersionedValue) localValue).getValue() : localValue;
+    }
+
+    private static long versionOf(Object localValue) {
+        if (localValue instanceof ExpiringValue) {
+            localValue = ((ExpiringValue) localValue).value;
+        }
+        return localValue instanceof VersionedValue ? ((VersionedValue) localValue).getVersion() : 0;
+    }
+
+    /**
+     * @return 值在 Redis 中的过期时刻，没有开启 expireWithRedis 时返回 0
+     */
+    private static long redisExpireAtOf(Object localValue) {
+        return localValue instanceof ExpiringValue ? ((ExpiringValue) localValue).expireAt : 0;
+    }
+
+    /**
+     * 取出堆外缓存中的值，取出后由调用方放回 Caffeine，同一个值不会同时保存在两层中
+     *
+     * @return 本地缓存中的值，不存在或无法反序列化时返回 null
+     */
+    @Nullable
+    private Object takeFromOffHeap(String redisKey) {
+        if (offHeapStore == null) {
+            return null;
+        }
+        byte[] bytes = offHeapStore.take(redisKey);
+        if (bytes == null) {
+            metrics.offHeapGet(0, 1);
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long version = buffer.getLong();
+            long redisExpireAt = buffer.getLong();
+            if (expireWithRedis && redisExpireAt - System.nanoTime() <= 0) {
+                // Redis 中的值已经过期
+                metrics.offHeapGet(0, 1);
+                return null;
+            }
+            Object storeValue = buffer.hasRemaining()
+                    ? valueSerializer.deserialize(Arrays.copyOfRange(bytes, OFF_HEAP_HEADER_BYTES, bytes.length))
+                    : NullValue.INSTANCE;
+            metrics.offHeapGet(1, 0);
+            return toLocalValue(storeValue, version, redisExpireAt);
+        } catch (RuntimeException e) {
+            log.warn("failed to deserialize the off-heap value of key {}, fall back to Redis", redisKey, e);
+            metrics.offHeapGet(0, 1);
+            return null;
+        }
+    }
+
+    /**
+     * 把 Caffeine 淘汰的值连同版本号与 Redis 中的过期时刻序列化后写入堆外缓存
+     */
+    private void spillToOffHeap(Object localKey, Object localValue) {
+        try {
+            byte[] value = serializeValue(fromLocalValue(localValue));
+            byte[] bytes = ByteBuffer.allocate(OFF_HEAP_HEADER_BYTES + value.length)
+                    .putLong(versionOf(localValue))
+                    .putLong(redisExpireAtOf(localValue))
+                    .put(value)
+                    .array();
+            offHeapStore.put(toRedisKey(localKey), bytes);
+        } catch (RuntimeException e) {
+            log.warn("failed to move the evicted value of key {} off heap", localKey, e);
+        }
+    }
+
+    /**
+     * 删除 Caffeine 之外保存的副本：堆外缓存中的值与过期后保留的旧值
+     */
+    private void removeSpilled(String redisKey) {
+        if (offHeapStore != null) {
+            offHeapStore.remove(redisKey);
+        }
+        if (staleValues != null) {
+            staleValues.invalidate(redisKey);
+        }
+    }
+
+    /**
+     * 读取失败时返回过期后保留的旧值，没有时抛出原来的异常
+     *
+     * @return 存储值
+     */
+    private Object staleOrThrow(Object key, RuntimeException e) {
+        Object staleValue = staleValues == null ? null : staleValues.getIfPresent(createRedisKey(key));
+        if (staleValue == null) {
+            throw e;
+        }
+        log.warn("failed to load key {} of cache {}, serve the stale value: {}", key, name, e.toString());
+        return fromLocalValue(staleValue);
+    }
+
+    private void acquire(Lock l) {
+        long start = System.nanoTime();
+        l.lock();
+        metrics.lockWait(System.nanoTime() - start);
+    }
+
+    /**
+     * @return 熔断期间返回 null
+     */
+    @Nullable
+    private Object getFromRedis(String redisKey) {
+        PipelinedWrite unflushed = writeBehindQueue == null ? null : writeBehindQueue.getUnflushed(redisKey);
+        if (unflushed != null) {
+            // Redis 中还是写回之前的旧值，删除时按未命中处理
+            return unflushed.redisValue;
+        }
+        return callRedis(() -> {
+            long start = System.nanoTime();
+            Object redisValue = expireWithRedis
+                    ? multiGetWithTtl(Collections.singletonList(redisKey)).get(0)
+                    : fromRedisBytes(redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.get(rawKey(redisKey))));
+            metrics.redisCall(CacheMetrics.RedisOperation.GET, System.nanoTime() - start);
+            if (redisValue == null) {
+                metrics.redisGet(0, 1);
+            } else {
+                metrics.redisGet(1, 0);
+            }
+            markExisting(redisKey, redisValue);
+            return redisValue;
+        }, () -> null);
+    }
+
+    /**
+     * @return 熔断期间返回 null
+     */
+    @Nullable
+    private List<Object> multiGetFromRedis(List<Object> redisKeys) {
+        if (writeBehindQueue == null) {
+            return readFromRedis(redisKeys);
+        }
+        // 异步写回队列中还有写入的 key 使用队列中的值，其余的 key 读取 Redis
+        List<Object> redisValues = new ArrayList<>(Collections.nCopies(redisKeys.size(), null));
+        List<Object> readKeys = new ArrayList<>(redisKeys.size());
+        List<Integer> readIndexes = new ArrayList<>(redisKeys.size());
+        for (int i = 0; i < redisKeys.size(); i++) {
+            PipelinedWrite unflushed = writeBehindQueue.getUnflushed((String) redisKeys.get(i));
+            if (unflushed != null) {
+                redisValues.set(i, unflushed.redisValue);
+            } else {
+                readKeys.add(redisKeys.get(i));
+                readIndexes.add(i);
+            }
+        }
+        if (readKeys.isEmpty()) {
+            return redisValues;
+        }
+        List<Object> readValues = readFromRedis(readKeys);
+        if (readValues == null) {
+            return null;
+        }
+        for (int i = 0; i < readIndexes.size(); i++) {
+            redisValues.set(readIndexes.get(i), readValues.get(i));
+        }
+        return redisValues;
+    }
+
+    /**
+     * @return 熔断期间返回 null
+     */
+    @Nullable
+    private List<Object> readFromRedis(List<Object> redisKeys) {
+        return callRedis(() -> {
+            long start = System.nanoTime();
+            List<Object> redisValues;
+            if (expireWithRedis) {
+                redisValues = multiGetWithTtl(redisKeys);
+            } else {
+                byte[][] rawKeys = rawKeys(redisKeys);
+                List<byte[]> rawValues = redisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                        connection.mGet(rawKeys));
+                redisValues = new ArrayList<>(redisKeys.size());
+                for (int i = 0; i < redisKeys.size(); i++) {
+                    redisValues.add(rawValues == null ? null : fromRedisBytes(rawValues.get(i)));
+                }
+            }
+            metrics.redisCall(CacheMetrics.RedisOperation.MGET, System.nanoTime() - start);
+            for (int i = 0; i < redisKeys.size(); i++) {
+                markExisting(redisKeys.get(i), redisValues.get(i));
+            }
+            return redisValues;
+        }, () -> null);
+    }
+
+    /**
+     * Redis 中有值的 key 一定存在，本地的布隆过滤器副本还没有同步到时立即加入
+     */
+    private void markExisting(Object redisKey, @Nullable Object redisValue) {
+        if (bloomFilter != null && redisValue != null && redisValue != NullValue.INSTANCE) {
+            bloomFilter.addLocal((String) redisKey);
+        }
+    }
+
+    /**
+     * 空数组是空值标记，只在允许缓存空值时读取为 {@link NullValue}
+     */
+    @Nullable
+    private Object fromRedisBytes(@Nullable byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length == 0) {
+            return isAllowNullValues() ? NullValue.INSTANCE : null;
+        }
+        return valueSerializer.deserialize(bytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] rawKey(Object redisKey) {
+        return ((RedisSerializer<Object>) redisTemplate.getKeySerializer()).serialize(redisKey);
+    }
+
+    private byte[][] rawKeys(List<Object> redisKeys) {
+        byte[][] rawKeys = new byte[redisKeys.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = rawKey(redisKeys.get(i));
+        }
+        return rawKeys;
+    }
+
+    /**
+     * 在同一次 pipeline 中读取值与 PTTL，有剩余时间的值包装为 {@link ExpiringValue}
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> multiGetWithTtl(List<Object> redisKeys) {
+        byte[][] rawKeys = rawKeys(redisKeys);
+        long readAt = System.nanoTime();
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            if (rawKeys.length == 1) {
+                connection.get(rawKeys[0]);
+            } else {
+                connection.mGet(rawKeys);
+            }
+            for (byte[] rawKey : rawKeys) {
+                connection.pTtl(rawKey);
+            }
+            return null;
+        }, null);
+        List<byte[]> rawValues = rawKeys.length == 1
+                ? Collections.singletonList((byte[]) results.get(0)) : (List<byte[]>) results.get(0);
+        List<Object> redisValues = new ArrayList<>(rawValues.size());
+        for (int i = 0; i < rawValues.size(); i++) {
+            Object redisValue = fromRedisBytes(rawValues.get(i));
+            redisValues.add(redisValue);
+            Long ttl = (Long) results.get(i + 1);
+            // 没有过期时间或 key 已经不存在时按 minRedisExpire 计算
+            if (redisValue != null && ttl != null && ttl >= 0) {
+                redisValues.set(i, new ExpiringValue(redisValue, readAt + TimeUnit.MILLISECONDS.toNanos(ttl)));
+            }
+        }
+        return redisValues;
+    }
+
+    /**
+     * 熔断期间跳过的写入在恢复后删除对应的 Redis key
+     */
+    private void executeWrites(List<PipelinedWrite> writes) {
+        runRedis(() -> PipelinedWrite.execute(redisTemplate, messageSender, writes),
+                () -> writes.forEach(write -> markSkipped(write.redisKey)));
+    }
+
+    /**
+     * 通过熔断器调用 Redis，没有开启熔断时直接调用
+     * <p>
+     * 熔断期间不调用，返回 fallback 的结果；调用抛出 {@link DataAccessException} 时记为一次失败，同样返回 fallback 的结果。
+     */
+    private <T> T callRedis(Supplier<T> call, Supplier<T> fallback) {
+        if (circuitBreaker == null) {
+            return call.get();
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            return fallback.get();
+        }
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.get();
+        } catch (DataAccessException e) {
+            circuitBreaker.onFailure();
+            log.warn("redis call of cache {} failed, fall back to the local cache: {}", name, e.toString());
+            return fallback.get();
+        } catch (RuntimeException | Error e) {
+            circuitBreaker.onIgnored();
+            throw e;
+        }
+        circuitBreaker.onSuccess(System.nanoTime() - start);
+        return result;
+    }
+
+    private void runRedis(Runnable call, Runnable fallback) {
+        callRedis(() -> {
+            call.run();
+            return null;
+        }, () -> {
+            fallback.run();
+            return null;
+        });
+    }
+
+    private boolean isRedisAvailable() {
+        return circuitBreaker == null || circuitBreaker.isClosed();
+    }
+
+    /**
+     * 熔断期间不进入异步写回队列，避免队列积压后阻塞写入线程
+     */
+    private boolean useWriteBehind() {
+        return writeBehindQueue != null && isRedisAvailable();
+    }
+
+    private void markSkipped(String redisKey) {
+        if (skippedKeys.size() >= maxSkippedKeys) {
+            skippedAll = true;
+        } else {
+            skippedKeys.add(redisKey);
+        }
+    }
+
+    /**
+     * 熔断恢复后删除断开期间没有写入的 key，通知其他节点并清空本地缓存，断开期间可能错过了其他节点的消息
+     * <p>
+     * 探测调用可能发生在 Caffeine 的计算过程中，因此在后台线程中执行。
+     */
+    private void onRedisRecovered() {
+        Executor executor = clearExecutor == null ? asyncExecutor : clearExecutor;
+        executor.execute(() -> {
+            boolean all = skippedAll;
+            skippedAll = false;
+            List<Object> keys = new ArrayList<>(skippedKeys);
+            skippedKeys.removeAll(keys);
+            boolean skipped = all || !keys.isEmpty() || skippedMessages;
+            skippedMessages = false;
+            try {
+                if (all) {
+                    RedisKeyCleaner.unlinkByPrefix(redisTemplate, cachePrefix, clearBatchSize);
+                } else if (!keys.isEmpty()) {
+                    redisTemplate.delete(keys);
+                }
+                if (skipped) {
+                    pushEvict(null, nextVersion());
+                }
+            } catch (RuntimeException e) {
+                log.error("failed to remove the keys of cache {} skipped while redis was unavailable", name, e);
+            }
+            invalidateLocalAll();
+            log.info("redis recovered, cleared the local cache of {}", name);
+        });
+    }
+
+    /**
+     * @param delta 计算该值的耗时，单位毫秒
+     */
+    private void setToRedis(String redisKey, Object storeValue, long delta, long version) {
+        if (storeValue == NullValue.INSTANCE) {
+            if (nullValueExpire > 0) {
+                runRedis(() -> {
+                    long start = System.nanoTime();
+                    redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                            connection.pSetEx(rawKey(redisKey), nullValueExpire, EMPTY_VALUE));
+                    metrics.redisCall(CacheMetrics.RedisOperation.SET, System.nanoTime() - start);
+                }, () -> markSkipped(redisKey));
+            } else if (clientTracking) {
+                // 没有 topic 消息时只能通过修改 Redis key 让其他节点失效本地缓存中的旧值
+                deleteFromRedis(redisKey);
+            }
+            return;
+        }
+        addBloomKeys(Collections.singletonList(redisKey));
+        runRedis(() -> {
+            long expire = getRedisExpire();
+            long start = System.nanoTime();
+            opsForValue.set(redisKey, toRedisValue(storeValue, delta, expire, version), expire,
+                    TimeUnit.MILLISECONDS);
+            metrics.redisCall(CacheMetrics.RedisOperation.SET, System.nanoTime() - start);
+        }, () -> markSkipped(redisKey));
+    }
+
+    private void deleteFromRedis(String redisKey) {
+        runRedis(() -> {
+            long start = System.nanoTime();
+            redisTemplate.delete(redisKey);
+            metrics.redisCall(CacheMetrics.RedisOperation.DELETE, System.nanoTime() - start);
+        }, () -> markSkipped(redisKey));
+    }
+
+    /**
+     * 批量或异步写回时的写入，空值写入空值标记，没有开启空值标记的客户端缓存模式下改为删除 Redis key
+     *
+     * @see #setToRedis(String, Object, long, long)
+     */
+    private PipelinedWrite createWrite(String redisKey, Object storeValue, long delta, long version,
+                                       @Nullable TopicMessage message) {
+        if (storeValue == NullValue.INSTANCE) {
+            return clientTracking && nullValueExpire == 0 ? PipelinedWrite.delete(redisKey, message, metrics)
+                    : PipelinedWrite.set(redisKey, storeValue, nullValueExpire, message, metrics);
+        }
+        long expire = getRedisExpire();
+        return PipelinedWrite.set(redisKey, toRedisValue(storeValue, delta, expire, version), expire, message,
+                metrics);
+    }
+
+    /**
+     * @return key 一定不存在时返回 true，没有开启布隆过滤器时返回 false
+     */
+    private boolean rejectedByBloomFilter(String redisKey) {
+        if (bloomFilter == null || bloomFilter.mightContain(redisKey)) {
+            return false;
+        }
+        metrics.bloomFilterRejected();
+        return true;
+    }
+
+    /**
+     * 写入非空值时把 key 加入布隆过滤器，位图还不存在或熔断期间留到同步时补写
+     * <p>
+     * 本地副本中已有的位不代表 Redis 中也有，所以每次写入都设置 Redis 中的位。
+     */
+    private void addBloomKeys(Collection<String> redisKeys) {
+        if (bloomFilter == null || redisKeys.isEmpty()) {
+            return;
+        }
+        redisKeys.forEach(bloomFilter::addLocal);
+        if (!bloomFilter.isReady()) {
+            pendingBloomKeys.addAll(redisKeys);
+            return;
+        }
+        runRedis(() -> bloomFilter.addToRedis(redisKeys), () -> pendingBloomKeys.addAll(redisKeys));
+    }
+
+    /**
+     * 把已有的 key 写入布隆过滤器的位图，然后立即同步本地副本，没有开启布隆过滤器时忽略
+     * <p>
+     * 位图中应包含所有已有的 key，其他节点在下一次同步时生效。key 较多时可以分多次调用，
+     * 第一次调用之后过滤器即生效，全部写入之前尚未写入的 key 会被判断为不存在。
+     */
+    public void addToBloomFilter(Collection<?> keys) {
+        if (bloomFilter == null) {
+            return;
+        }
+        List<String> batch = new ArrayList<>(Math.min(keys.size(), BLOOM_BATCH_SIZE));
+        for (Object key : keys) {
+            String redisKey = createRedisKey(key);
+            bloomFilter.addLocal(redisKey);
+            batch.add(redisKey);
+            if (batch.size() >= BLOOM_BATCH_SIZE) {
+                bloomFilter.addToRedis(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            bloomFilter.addToRedis(batch);
+        }
+        bloomFilter.sync();
+        flushPendingBloomKeys();
+    }
+
+    /**
+     * 从 Redis 重建布隆过滤器的本地副本，位图存在时补写还没有写入的 key
+     */
+    void syncBloomFilter() {
+        if (bloomFilter == null) {
+            return;
+        }
+        runRedis(() -> {
+            bloomFilter.sync();
+            flushPendingBloomKeys();
+        }, () -> {
+        });
+    }
+
+    /**
+     * 位图存在时把待补写的 key 写入 Redis，否则继续保留，避免在只包含部分 key 的位图中创建位
+     * <p>
+     * 重建后的本地副本不包含这些 key，先重新设置本地的位。
+     */
+    private void flushPendingBloomKeys() {
+        if (pendingBloomKeys.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(pendingBloomKeys);
+        keys.forEach(bloomFilter::addLocal);
+        if (bloomFilter.isReady()) {
+            bloomFilter.addToRedis(keys);
+            pendingBloomKeys.removeAll(keys);
+        }
+    }
+
+    /**
+     * 调用加载函数并记录耗时
+     */
+    private Object callLoader(Callable<?> loader) throws Exception {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Object storeValue = toStoreValue(loader.call());
+            success = true;
+            return storeValue;
+        } finally {
+            metrics.load(System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * 开启提前重算时，把值连同重算耗时与过期时刻一起写入 Redis；开启版本号时再附带版本号
+     */
+    private Object toRedisValue(Object storeValue, long delta, long expire, long version) {
+        if (storeValue == NullValue.INSTANCE) {
+            return storeValue;
+        }
+        Object redisValue = earlyExpirationBeta > 0
+                ? new EarlyExpirationValue(storeValue, delta, System.currentTimeMillis() + expire) : storeValue;
+        return versioned ? new VersionedValue(redisValue, version) : redisValue;
+    }
+
+    /**
+     * XFetch：越接近过期时刻、重算耗时越长，越有可能提前判定为过期，让个别请求提前重算，避免热点 key 过期时集中未命中
+     */
+    private boolean shouldRecomputeEarly(Object redisValue) {
+        if (redisValue instanceof ExpiringValue) {
+            redisValue = ((ExpiringValue) redisValue).value;
+        }
+        if (redisValue instanceof VersionedValue) {
+            redisValue = ((VersionedValue) redisValue).getValue();
+        }
+        if (earlyExpirationBeta <= 0 || !(redisValue instanceof EarlyExpirationValue)) {
+            return false;
+        }
+        EarlyExpirationValue value = (EarlyExpirationValue) redisValue;
+        double gap = -value.getDelta() * earlyExpirationBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= value.getExpireAt();
+    }
+
+    private void markRecomputeStart(Object key) {
+        if (recomputeStarts != null) {
+            recomputeStarts.put(key, System.nanoTime());
+        }
+    }
+
+    /**
+     * @return 从 lookup 未命中到 put 的耗时，没有记录时返回 0
+     */
+    private long takeRecomputeDelta(Object key) {
+        if (recomputeStarts == null) {
+            return 0;
+        }
+        Long start = recomputeStarts.asMap().remove(key);
+        return start == null ? 0 : elapsedMillis(start);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 使用 topic 确保 Redis 与 Caffeine 的最终一致性
+     */
+    private void pushEvict(@Nullable Object key, long version) {
+        TopicMessage message = evictMessage(key, version);
+        if (message != null) {
+            publish(message);
+        }
+    }
+
+    /**
+     * 使用 topic 确保 Redis 与 Caffeine 的最终一致性
+     */
+    private void pushRefresh(@Nullable Object key, Object value, long version) {
+        TopicMessage message = refreshMessage(key, value, version);
+        if (message != null) {
+            publish(message);
+        }
+    }
+
+    /**
+     * @return 客户端缓存模式下由 Redis 推送失效消息，返回 null
+     */
+    @Nullable
+    private TopicMessage evictMessage(@Nullable Object key, long version) {
+        return clientTracking ? null : TopicMessage.create(origin, this.name, key, version);
+    }
+
+    @Nullable
+    private TopicMessage refreshMessage(@Nullable Object key, Object value, long version) {
+        return clientTracking ? null : TopicMessage.create(origin, this.name, key, serializeValue(value), version);
+    }
+
+    /**
+     * 空值序列化为空数组，单独序列化 {@link NullValue} 时 JSON 中不会带有类型信息
+     */
+    private byte[] serializeValue(Object storeValue) {
+        return storeValue == NullValue.INSTANCE ? EMPTY_VALUE : valueSerializer.serialize(storeValue);
+    }
+
+    /**
+     * 与 {@link RedisTemplate#convertAndSend} 相同的序列化方式，自行序列化以便记录消息大小，STREAM 模式下追加到 Stream
+     */
+    private void publish(TopicMessage message) {
+        runRedis(() -> {
+            long start = System.nanoTime();
+            byte[] rawMessage = valueSerializer.serialize(message);
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                messageSender.send(connection, rawMessage);
+                return null;
+            });
+            metrics.redisCall(CacheMetrics.RedisOperation.PUBLISH, System.nanoTime() - start);
+            metrics.messageSent(rawMessage.length);
+        }, () -> skippedMessages = true);
+    }
+
+    /**
+     * 返回缓存 key 在 Redis 中对应的完整 key
+     */
+    public String createRedisKey(Object key) {
+        return cachePrefix.concat(redisKeyEncoder.encode(key));
+    }
+
+    private long getRedisExpire() {
+        return expireRandom.nextLong(minRedisExpire, maxRedisExpire);
+    }
+
+    /**
+     * Like for org.springframework.cache.caffeine.CaffeineCache.PutIfAbsentFunction
+     */
+    private class PutIfAbsentFunction implements Function<Object, Object> {
+
+        @Nullable
+        private final Object value;
+
+        private boolean called;
+
+        public PutIfAbsentFunction(@Nullable Object value) {
+            this.value = value;
+        }
+
+        /**
+         * caffeine 已经保证了会同步调用，不需要多余的同步控制
+         */
+        @Override
+        public Object apply(Object key) {
+            this.called = true;
+            if (value != null) {
+                addBloomKeys(Collections.singletonList(toRedisKey(key)));
+            }
+            return new LoadFunction(() -> value).apply(key);
+        }
+    }
+
+    /**
+     * Like for org.springframework.cache.caffeine.CaffeineCache.LoadFunction
+     */
+    private class LoadFunction implements Function<Object, Object> {
+
+        private final Callable<?> valueLoader;
+
+        /**
+         * 异步加载时值已经由调用方加载完成，这里是加载开始的时刻，用于计算重算耗时；同步加载时为 null
+         */
+        @Nullable
+        private final Long loadStart;
+
+        public LoadFunction(Callable<?> valueLoader) {
+            this(valueLoader, null);
+        }
+
+        LoadFunction(Callable<?> valueLoader, @Nullable Long loadStart) {
+            this.valueLoader = valueLoader;
+            this.loadStart = loadStart;
+        }
+
+        private long loadStart() {
+            return loadStart == null ? System.nanoTime() : loadStart;
+        }
+
+        /**
+         * 异步加载的耗时已经由调用方记录
+         */
+        private Object callValueLoader() throws Exception {
+            return loadStart == null ? callLoader(valueLoader) : toStoreValue(valueLoader.call());
+        }
+
+        /**
+         * caffeine 已经保证了会同步调用，不需要多余的同步控制
+         */
+        @Override
+        public Object apply(Object localKey) {
+            Object k = fromLocalKey(localKey);
+            String redisKey = toRedisKey(localKey);
+            try {
+                Object offHeapValue = takeFromOffHeap(redisKey);
+                if (offHeapValue != null) {
+                    return offHeapValue;
+                }
+                // Redis 命中说明其他节点读到的也是同一个值，不需要通知
+                Object redisValue = getFromRedis(redisKey);
+                if (redisValue != null && !shouldRecomputeEarly(redisValue)) {
+                    return toLocalValue(redisValue);
+                }
+                if (redisValue == null && loadStart == null && rejectedByBloomFilter(redisKey)) {
+                    // Redis 中也没有、一定不存在的 key 不调用加载函数，也不写入本地缓存
+                    return null;
+                }
+
+                long version = nextVersion();
+                if (singleFlight != null && isRedisAvailable()) {
+                    long expire = getRedisExpire();
+                    Object flightValue = singleFlight.load(redisKey, expire, () -> {
+                        long start = loadStart();
+                        Object calledValue = callValueLoader();
+                        return toRedisValue(calledValue, elapsedMillis(start), expire, version);
+                    }, loaded -> {
+                        if (loaded != NullValue.INSTANCE) {
+                            addBloomKeys(Collections.singletonList(redisKey));
+                        }
+                        pushEvict(k, version);
+                    });
+                    if (flightValue != null) {
+                        return toLocalValue(flightValue);
+                    }
+                    // 等待其他节点超时，与没有开启时一样在本地加载，通过熔断器写入 Redis
+                }
+
+                // 重新加载后只通知其他节点失效本地缓存，由其他节点按需从 Redis 读取，避免广播完整的值
+                long start = loadStart();
+                Object calledValue = callValueLoader();
+                setToRedis(redisKey, calledValue, elapsedMillis(start), version);
+                pushEvict(k, version);
+
+                return toLocalValue(calledValue, version);
             } catch (Exception ex) {
                 throw new ValueRetrievalException(k, this.valueLoader, ex);
             }
@@ -386,4 +1826,74 @@ public class MultiCache extends AbstractValueAdaptingCache {
 
     }
 
+    /**
+     * refreshAfterWrite 触发的后台刷新，在 caffeine 的刷新线程池中执行，刷新期间继续返回旧值
+     */
+    private class RefreshLoader implements CacheLoader<Object, Object> {
+
+        @Override
+        @Nullable
+        public Object load(Object localKey) throws Exception {
+            return reload(localKey, null);
+        }
+
+        /**
+         * 先读取 Redis，Redis 中没有时调用注册的加载函数并写回 Redis；都没有时保留旧值，直到 expireAfterWrite 过期
+         */
+        @Override
+        @Nullable
+        public Object reload(Object localKey, @Nullable Object oldValue) throws Exception {
+            Object key = fromLocalKey(localKey);
+            Lock rl = lock.get(key).readLock();
+            try {
+                acquire(rl);
+
+                String redisKey = toRedisKey(localKey);
+                Object redisValue = getFromRedis(redisKey);
+                if (redisValue != null) {
+                    return toLocalValue(redisValue);
+                }
+
+                Function<Object, ?> loader = refreshLoader;
+                if (loader == null) {
+                    return oldValue;
+                }
+                long start = System.nanoTime();
+                Object loadedValue = callLoader(() -> loader.apply(key));
+                long version = nextVersion();
+                setToRedis(redisKey, loadedValue, elapsedMillis(start), version);
+                pushEvict(key, version);
+                return toLocalValue(loadedValue, version);
+            } finally {
+                rl.unlock();
+            }
+        }
+
+    }
+
+    /**
+     * 在 Caffeine 的写入与删除中同步调用：按容量淘汰的值转入堆外缓存，过期的值保留一段时间用于读取失败时返回，
+     * 显式写入的值使这两处的旧值失效
+     */
+    private class SpillingWriter implements CacheWriter<Object, Object> {
+
+        @Override
+        public void write(Object localKey, Object localValue) {
+            removeSpilled(toRedisKey(localKey));
+        }
+
+        @Override
+        public void delete(Object localKey, @Nullable Object localValue, RemovalCause cause) {
+            if (localValue == null) {
+                return;
+            }
+            if (cause == RemovalCause.SIZE && offHeapStore != null) {
+                spillToOffHeap(localKey, localValue);
+            } else if (cause == RemovalCause.EXPIRED && staleValues != null) {
+                staleValues.put(toRedisKey(localKey), localValue);
+            }
+        }
+
+    }
+
 }
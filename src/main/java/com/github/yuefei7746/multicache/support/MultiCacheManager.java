@@ -1,20 +1,35 @@
 package com.github.yuefei7746.multicache.support;
 
+import com.github.benmanes.caffeine.cache.Weigher;
 import com.github.yuefei7746.multicache.MultiCacheProperty;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cache.Cache;
 import org.springframework.cache.support.AbstractCacheManager;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author yuefei7746
  */
 @Slf4j
-public class MultiCacheManager extends AbstractCacheManager {
+public class MultiCacheManager extends AbstractCacheManager implements DisposableBean {
 
     private final MultiCacheProperty multiCacheProperty;
 
@@ -22,10 +37,192 @@ public class MultiCacheManager extends AbstractCacheManager {
 
     private final boolean dynamic;
 
+    @Nullable
+    private final WriteBehindQueue writeBehindQueue;
+
+    @Nullable
+    private final ExecutorService refreshExecutor;
+
+    private final ExecutorService clearExecutor;
+
+    private final ExecutorService asyncExecutor;
+
+    /**
+     * 为 null 时没有使用 topic 或 Stream 消息
+     */
+    @Nullable
+    private final MessageDispatcher messageDispatcher;
+
+    @Nullable
+    private final ScheduledExecutorService hotKeyScheduler;
+
+    /**
+     * 为 null 时没有缓存开启布隆过滤器
+     */
+    @Nullable
+    private final ScheduledExecutorService bloomFilterScheduler;
+
+    private final MessageOrigin origin = new MessageOrigin();
+
+    private final MultiCacheResources resources;
+
+    private final List<Consumer<MultiCache>> cacheCreatedListeners = new CopyOnWriteArrayList<>();
+
     public MultiCacheManager(MultiCacheProperty multiCacheProperty, RedisTemplate<Object, Object> redisTemplate) {
+        this(multiCacheProperty, redisTemplate, null);
+    }
+
+    public MultiCacheManager(MultiCacheProperty multiCacheProperty, RedisTemplate<Object, Object> redisTemplate,
+                             @Nullable MultiCacheMetrics metrics) {
+        this(multiCacheProperty, redisTemplate, metrics, null);
+    }
+
+    /**
+     * @param metrics 为 null 时不记录指标
+     * @param weigher 配置了 maximumWeight 时计算本地缓存权重的函数，为 null 时使用序列化后的字节数
+     */
+    public MultiCacheManager(MultiCacheProperty multiCacheProperty, RedisTemplate<Object, Object> redisTemplate,
+                             @Nullable MultiCacheMetrics metrics, @Nullable Weigher<Object, Object> weigher) {
         this.multiCacheProperty = multiCacheProperty;
         this.redisTemplate = redisTemplate;
         this.dynamic = multiCacheProperty.isDynamic();
+
+        MultiCacheProperty.RedisProperty redisProperty = multiCacheProperty.getRedis();
+        this.writeBehindQueue = redisProperty.getWriteBehind().isEnabled()
+                ? new WriteBehindQueue(redisTemplate, redisProperty) : null;
+        this.refreshExecutor = createRefreshExecutor(multiCacheProperty.getCaffeine());
+        this.clearExecutor = createClearExecutor();
+        this.asyncExecutor = createAsyncExecutor(multiCacheProperty.getAsyncThreads());
+        this.messageDispatcher = createMessageDispatcher(redisProperty, metrics);
+        this.hotKeyScheduler = createHotKeyScheduler(multiCacheProperty.getHotKey());
+        this.bloomFilterScheduler = createBloomFilterScheduler(multiCacheProperty.getBloomFilter());
+        this.resources = MultiCacheResources.builder()
+                .writeBehindQueue(writeBehindQueue)
+                .refreshExecutor(refreshExecutor)
+                .clearExecutor(clearExecutor)
+                .asyncExecutor(asyncExecutor)
+                .circuitBreaker(redisProperty.getCircuitBreaker().isEnabled()
+                        ? new RedisCircuitBreaker(redisProperty.getCircuitBreaker()) : null)
+                .metrics(metrics)
+                .origin(origin)
+                .weigher(weigher)
+                .build();
+    }
+
+    @Nullable
+    private static ExecutorService createRefreshExecutor(MultiCacheProperty.CaffeineProperty caffeineProperty) {
+        if (!caffeineProperty.isRefreshEnabled()) {
+            return null;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-cache-refresh-");
+        threadFactory.setDaemon(true);
+        return Executors.newFixedThreadPool(Math.max(1, caffeineProperty.getRefreshThreads()), threadFactory);
+    }
+
+    private static ExecutorService createClearExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-cache-clear-");
+        threadFactory.setDaemon(true);
+        return Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    @Nullable
+    private MessageDispatcher createMessageDispatcher(MultiCacheProperty.RedisProperty redisProperty,
+                                                      @Nullable MultiCacheMetrics metrics) {
+        if (redisProperty.getInvalidation() == MultiCacheProperty.InvalidationMode.CLIENT_TRACKING) {
+            return null;
+        }
+        MultiCacheProperty.ListenerProperty listenerProperty = redisProperty.getListener();
+        MessageDispatcher dispatcher = new MessageDispatcher(listenerProperty.getThreads(),
+                listenerProperty.getQueueCapacity(), this::invalidateLocal);
+        if (metrics != null) {
+            for (int i = 0; i < dispatcher.getPartitions(); i++) {
+                int partition = i;
+                metrics.bindMessageQueue(partition, () -> dispatcher.getPendingMessages(partition));
+            }
+        }
+        return dispatcher;
+    }
+
+    private void invalidateLocal(String cacheName) {
+        MultiCache cache = (MultiCache) getCache(cacheName);
+        if (cache != null) {
+            cache.invalidateLocalAll();
+        }
+    }
+
+    /**
+     * 空闲的线程会被回收，没有使用异步方法时不占用线程
+     */
+    static ExecutorService createAsyncExecutor(int asyncThreads) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-cache-async-");
+        threadFactory.setDaemon(true);
+        int threads = Math.max(1, asyncThreads);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 所有缓存共用一个线程定期刷新热点 key
+     */
+    @Nullable
+    private ScheduledExecutorService createHotKeyScheduler(MultiCacheProperty.HotKeyProperty hotKeyProperty) {
+        if (!hotKeyProperty.isEnabled()) {
+            return null;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-cache-hot-key-");
+        threadFactory.setDaemon(true);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long interval = hotKeyProperty.getRefreshInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::refreshHotKeys, interval, interval, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    private void refreshHotKeys() {
+        for (String cacheName : getCacheNames()) {
+            MultiCache cache = (MultiCache) getCache(cacheName);
+            try {
+                if (cache != null) {
+                    cache.refreshHotKeys();
+                }
+            } catch (RuntimeException e) {
+                log.warn("failed to refresh the hot keys of cache {}", cacheName, e);
+            }
+        }
+    }
+
+    /**
+     * 所有缓存共用一个线程定期同步布隆过滤器，新创建的缓存在该线程中完成第一次同步
+     */
+    @Nullable
+    private ScheduledExecutorService createBloomFilterScheduler(MultiCacheProperty.BloomFilterProperty property) {
+        if (property.getExpectedInsertions().isEmpty()) {
+            return null;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("multi-cache-bloom-");
+        threadFactory.setDaemon(true);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long interval = property.getSyncInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::syncBloomFilters, interval, interval, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    private void syncBloomFilters() {
+        for (String cacheName : getCacheNames()) {
+            syncBloomFilter((MultiCache) getCache(cacheName));
+        }
+    }
+
+    private static void syncBloomFilter(@Nullable MultiCache cache) {
+        if (cache == null) {
+            return;
+        }
+        try {
+            cache.syncBloomFilter();
+        } catch (RuntimeException e) {
+            log.warn("failed to sync the bloom filter of cache {}", cache.getName(), e);
+        }
     }
 
     @Override
@@ -43,16 +240,162 @@ public class MultiCacheManager extends AbstractCacheManager {
     }
 
     private MultiCache createCache(String cacheName) {
-        MultiCache newCache = new MultiCache(cacheName, redisTemplate, multiCacheProperty);
+        MultiCache newCache = new MultiCache(cacheName, redisTemplate, multiCacheProperty, resources);
         log.debug("create cache instance, the cache name is : {}", cacheName);
+        if (bloomFilterScheduler != null) {
+            bloomFilterScheduler.execute(() -> syncBloomFilter(newCache));
+        }
+        cacheCreatedListeners.forEach(listener -> listener.accept(newCache));
         return newCache;
     }
 
+    /**
+     * 注册创建缓存实例时的回调，不会对已经创建的缓存调用
+     */
+    public void addCacheCreatedListener(Consumer<MultiCache> listener) {
+        cacheCreatedListeners.add(listener);
+    }
+
     public void refreshCache(TopicMessage msg) {
+        refreshCache(msg, 0);
+    }
+
+    /**
+     * 交给消息对应的分区线程调用 {@link #refreshCache(TopicMessage, int)}，当前节点发布的消息直接丢弃
+     * <p>
+     * 分区的队列已满时丢弃消息并清空该缓存的本地缓存。
+     *
+     * @param messageBytes 消息序列化后的字节数，用于记录指标
+     */
+    public void dispatchMessage(TopicMessage msg, int messageBytes) {
+        if (messageDispatcher == null || origin.isOrigin(msg)) {
+            refreshCache(msg, messageBytes);
+            return;
+        }
+        if (!messageDispatcher.dispatch(msg.getCacheName(), msg.getKey(), () -> refreshCache(msg, messageBytes))) {
+            log.warn("the message queue is full, drop the message and clear the local cache of {}",
+                    msg.getCacheName());
+            MultiCache cache = (MultiCache) getCache(msg.getCacheName());
+            if (cache != null) {
+                cache.getMetrics().messageReceived(messageBytes);
+                cache.getMetrics().messageDropped();
+            }
+        }
+    }
+
+    /**
+     * 当前节点发布的消息在写入时已经更新过本地缓存，直接丢弃，不反序列化其中的值
+     * <p>
+     * 异步写回的操作在写入 Redis 之前由读取直接使用，后台 clear 在删除完成后自行清空本地缓存，都不依赖自己发布的消息。
+     *
+     * @param messageBytes 消息序列化后的字节数，用于记录指标
+     */
+    public void refreshCache(TopicMessage msg, int messageBytes) {
         MultiCache cache = (MultiCache) getCache(msg.getCacheName());
         if (cache != null) {
+            cache.getMetrics().messageReceived(messageBytes);
+            if (origin.isOrigin(msg)) {
+                return;
+            }
             cache.pullMessage(msg);
         }
     }
 
+    /**
+     * 清空所有缓存的本地缓存，用于无法确定错过了哪些消息的情况
+     * <p>
+     * 分区线程中还没有处理的消息可能把旧值写回本地缓存，这些缓存会在对应分区的队列处理完之后再清空一次。
+     */
+    public void invalidateLocalCaches() {
+        for (String cacheName : getCacheNames()) {
+            if (messageDispatcher != null) {
+                messageDispatcher.invalidateAll(cacheName);
+            } else {
+                invalidateLocal(cacheName);
+            }
+        }
+    }
+
+    /**
+     * 当前节点发布 topic 消息时使用的节点 ID，以及节点内缓存共用的版本号时钟
+     */
+    public MessageOrigin getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @see MultiCache#getAll(Collection, Function)
+     */
+    public <T> Map<Object, T> getAll(String cacheName, Collection<?> keys,
+                                     Function<Set<Object>, Map<Object, T>> bulkLoader) {
+        return getMultiCache(cacheName).getAll(keys, bulkLoader);
+    }
+
+    /**
+     * @see MultiCache#putAll(Map)
+     */
+    public void putAll(String cacheName, Map<?, ?> entries) {
+        getMultiCache(cacheName).putAll(entries);
+    }
+
+    /**
+     * @see MultiCache#evictAll(Collection)
+     */
+    public void evictAll(String cacheName, Collection<?> keys) {
+        getMultiCache(cacheName).evictAll(keys);
+    }
+
+    /**
+     * @see MultiCache#getHotKeys()
+     */
+    public List<Object> getHotKeys(String cacheName) {
+        return getMultiCache(cacheName).getHotKeys();
+    }
+
+    /**
+     * @see MultiCache#addToBloomFilter(Collection)
+     */
+    public void addToBloomFilter(String cacheName, Collection<?> keys) {
+        getMultiCache(cacheName).addToBloomFilter(keys);
+    }
+
+    /**
+     * 注册缓存后台刷新时 Redis 中没有值的情况下使用的加载函数，只在配置了 refreshAfterWrite 时生效
+     */
+    public void registerRefreshLoader(String cacheName, Function<Object, ?> refreshLoader) {
+        getMultiCache(cacheName).setRefreshLoader(refreshLoader);
+    }
+
+    private MultiCache getMultiCache(String cacheName) {
+        MultiCache cache = (MultiCache) getCache(cacheName);
+        if (cache == null) {
+            throw new IllegalArgumentException("Cannot find cache named '" + cacheName + "'");
+        }
+        return cache;
+    }
+
+    /**
+     * 关闭时写完异步写回队列中剩余的操作，并停止后台刷新、热点 key 刷新、布隆过滤器同步、后台清理、消息处理与异步方法的线程池
+     */
+    @Override
+    public void destroy() {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.close();
+        }
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+        if (hotKeyScheduler != null) {
+            hotKeyScheduler.shutdownNow();
+        }
+        if (bloomFilterScheduler != null) {
+            bloomFilterScheduler.shutdownNow();
+        }
+        clearExecutor.shutdownNow();
+        asyncExecutor.shutdown();
+        if (messageDispatcher != null) {
+            messageDispatcher.shutdown();
+        }
+    }
+
 }
@@ -0,0 +1,30 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import java.util.function.IntSupplier;
+
+/**
+ * 为 {@link MultiCacheManager} 创建的每个缓存注册指标
+ *
+ * @author yuefei7746
+ * @see MicrometerMultiCacheMetrics
+ */
+public interface MultiCacheMetrics {
+
+    /**
+     * 在缓存创建时调用一次，本地缓存已开启 recordStats
+     *
+     * @param caffeineCache 缓存使用的本地缓存
+     */
+    CacheMetrics bind(String cacheName, Cache<Object, Object> caffeineCache);
+
+    /**
+     * 在创建处理 topic 消息的线程时为每个线程调用一次
+     *
+     * @param pendingMessages 该线程等待处理的消息数
+     */
+    default void bindMessageQueue(int partition, IntSupplier pendingMessages) {
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.lang.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 由 {@link MultiCacheManager} 创建、在同一个管理器下的所有 {@link MultiCache} 之间共享的组件
+ * <p>
+ * 各项均可为 null，表示没有开启对应的功能。
+ *
+ * @author yuefei7746
+ */
+@Getter
+@Builder
+public class MultiCacheResources {
+
+    /**
+     * put 与 evict 的异步批量写回队列
+     */
+    @Nullable
+    private final WriteBehindQueue writeBehindQueue;
+
+    /**
+     * 执行 refreshAfterWrite 后台刷新的线程池
+     */
+    @Nullable
+    private final Executor refreshExecutor;
+
+    /**
+     * clear 时在后台删除 Redis 中缓存数据的线程池，为 null 时在调用线程中删除
+     */
+    @Nullable
+    private final Executor clearExecutor;
+
+    /**
+     * 执行 getAsync、putAsync、evictAsync 中阻塞的 Redis 调用的线程池，为 null 时缓存创建自己的线程池，线程数为 asyncThreads
+     */
+    @Nullable
+    private final Executor asyncExecutor;
+
+    /**
+     * Redis 调用的熔断器，为 null 时不熔断
+     */
+    @Nullable
+    private final RedisCircuitBreaker circuitBreaker;
+
+    /**
+     * 为每个缓存注册指标，为 null 时不记录指标，本地缓存也不开启 recordStats
+     */
+    @Nullable
+    private final MultiCacheMetrics metrics;
+
+    /**
+     * 发布 topic 消息的节点，为 null 时每个缓存使用自己的节点 ID
+     */
+    @Nullable
+    private final MessageOrigin origin;
+
+    /**
+     * 配置了 maximumWeight 时计算本地缓存权重的函数，参数是原始的 key 与存储值，为 null 时使用序列化后的字节数
+     */
+    @Nullable
+    private final Weigher<Object, Object> weigher;
+
+    public static MultiCacheResources none() {
+        return builder().build();
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.github.yuefei7746.multicache.support;
+
+import org.springframework.lang.Nullable;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 保存在堆外内存中的本地缓存，值为序列化后的字节
+ * <p>
+ * 按 key 的哈希分段，每段是一块固定大小的 direct ByteBuffer，值按写入顺序循环追加，空间不足时淘汰最早写入的值（FIFO）。
+ * 索引保存在堆内，每个值只对应一个很小的对象，值本身不会增加 GC 的负担。
+ * 被取走或删除的值所占的空间不会立即回收，直到循环写入再次经过时才被覆盖。
+ *
+ * @author yuefei7746
+ */
+final class OffHeapStore {
+
+    private final Segment[] segments;
+
+    private final long expireNanos;
+
+    /**
+     * @param capacity 所有分段的总字节数
+     * @param segments 分段数，会向上取整为 2 的幂
+     */
+    OffHeapStore(long capacity, int segments, Duration expireAfterWrite) {
+        int count = Integer.highestOneBit(Math.max(1, segments) * 2 - 1);
+        long segmentCapacity = capacity / count;
+        if (segmentCapacity <= 0 || segmentCapacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid off-heap segment capacity: " + segmentCapacity
+                    + ", adjust the capacity or the number of segments");
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment((int) segmentCapacity);
+        }
+        this.expireNanos = expireAfterWrite.toNanos();
+    }
+
+    /**
+     * 取出并删除 key 对应的值，值回到堆内的本地缓存后不再在堆外保留一份
+     *
+     * @return 不存在或已过期时返回 null
+     */
+    @Nullable
+    byte[] take(String key) {
+        return segmentFor(key).take(key, System.nanoTime());
+    }
+
+    /**
+     * 写入值，超过单个分段大小的值不保存
+     */
+    void put(String key, byte[] value) {
+        segmentFor(key).put(key, value, System.nanoTime() + expireNanos);
+    }
+
+    void remove(String key) {
+        segmentFor(key).remove(key);
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return 保存的值的个数，包括已过期但还没有被覆盖的值
+     */
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    private static final class Slot {
+
+        private final String key;
+
+        private final int offset;
+
+        private final int length;
+
+        private final long expireAt;
+
+        private Slot(String key, int offset, int length, long expireAt) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static final class Segment {
+
+        private final ByteBuffer buffer;
+
+        private final Map<String, Slot> index = new HashMap<>();
+
+        /**
+         * 按写入顺序排列的值，也就是在 buffer 中从最旧到最新的位置顺序
+         */
+        private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+
+        /**
+         * 下一次写入的位置
+         */
+        private int tail;
+
+        private Segment(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        synchronized byte[] take(String key, long now) {
+            Slot slot = index.remove(key);
+            if (slot == null || slot.expireAt - now <= 0) {
+                return null;
+            }
+            byte[] value = new byte[slot.length];
+            buffer.position(slot.offset);
+            buffer.get(value);
+            return value;
+        }
+
+        synchronized void put(String key, byte[] value, long expireAt) {
+            int length = value.length;
+            if (length > buffer.capacity()) {
+                index.remove(key);
+                return;
+            }
+            if (tail + length > buffer.capacity()) {
+                // 末尾放不下时从头开始写，末尾剩余位置上的值是最旧的，一并淘汰
+                while (!slots.isEmpty() && slots.peekFirst().offset >= tail) {
+                    evictFirst();
+                }
+                tail = 0;
+            }
+            // 淘汰即将被覆盖的上一轮写入的值
+            while (!slots.isEmpty() && slots.peekFirst().offset >= tail && slots.peekFirst().offset < tail + length) {
+                evictFirst();
+            }
+
+            buffer.position(tail);
+            buffer.put(value);
+            Slot slot = new Slot(key, tail, length, expireAt);
+            slots.addLast(slot);
+            index.put(key, slot);
+            tail += length;
+        }
+
+        private void evictFirst() {
+            Slot slot = slots.pollFirst();
+            if (index.get(slot.key) == slot) {
+                index.remove(slot.key);
+            }
+        }
+
+        synchronized void remove(String key) {
+            index.remove(key);
+        }
+
+        synchronized void clear() {
+            index.clear();
+            slots.clear();
+            tail = 0;
+        }
+
+        synchronized int size() {
+            return index.size();
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package com.github.yuefei7746.multicache.support;
+
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+
+import java.util.Collection;
+
+/**
+ * 一次对 Redis key 的写入（SET PX 或 DEL）及其对应的 topic 或 Stream 通知，多个写入通过 pipeline 一次往返提交
+ *
+ * @author yuefei7746
+ */
+final class PipelinedWrite {
+
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    final String redisKey;
+
+    /**
+     * 为 null 时表示删除，为 {@link NullValue} 时写入空值标记，expireMillis 为 0 时只发送通知
+     */
+    @Nullable
+    final Object redisValue;
+
+    final long expireMillis;
+
+    /**
+     * 为 null 时不发送通知
+     */
+    @Nullable
+    final TopicMessage message;
+
+    /**
+     * 发起写入的缓存的指标
+     */
+    final CacheMetrics metrics;
+
+    /**
+     * 异步写回重试后仍然失败、放弃写入时的回调，为 null 时只记录日志
+     */
+    @Nullable
+    final Runnable onDropped;
+
+    /**
+     * 异步写回失败的次数，只在写回线程中访问
+     */
+    int failures;
+
+    private PipelinedWrite(String redisKey, @Nullable Object redisValue, long expireMillis,
+                           @Nullable TopicMessage message, CacheMetrics metrics, @Nullable Runnable onDropped) {
+        this.redisKey = redisKey;
+        this.redisValue = redisValue;
+        this.expireMillis = expireMillis;
+        this.message = message;
+        this.metrics = metrics;
+        this.onDropped = onDropped;
+    }
+
+    static PipelinedWrite set(String redisKey, Object redisValue, long expireMillis, @Nullable TopicMessage message,
+                              CacheMetrics metrics) {
+        return new PipelinedWrite(redisKey, redisValue, expireMillis, message, metrics, null);
+    }
+
+    static PipelinedWrite delete(String redisKey, @Nullable TopicMessage message, CacheMetrics metrics) {
+        return new PipelinedWrite(redisKey, null, 0, message, metrics, null);
+    }
+
+    PipelinedWrite whenDropped(Runnable onDropped) {
+        return new PipelinedWrite(redisKey, redisValue, expireMillis, message, metrics, onDropped);
+    }
+
+    /**
+     * 在调用线程中序列化后通过 pipeline 提交，整个 pipeline 的耗时计入每个涉及到的缓存
+     */
+    @SuppressWarnings("unchecked")
+    static void execute(RedisTemplate<Object, Object> redisTemplate, MessageSender messageSender,
+                        Collection<PipelinedWrite> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        RedisSerializer<Object> keySerializer = (RedisSerializer<Object>) redisTemplate.getKeySerializer();
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+
+        long start = System.nanoTime();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (PipelinedWrite write : writes) {
+                byte[] rawKey = keySerializer.serialize(write.redisKey);
+                if (write.redisValue == null) {
+                    connection.del(rawKey);
+                } else if (write.redisValue == NullValue.INSTANCE) {
+                    if (write.expireMillis > 0) {
+                        connection.pSetEx(rawKey, write.expireMillis, EMPTY_VALUE);
+                    }
+                } else {
+                    connection.pSetEx(rawKey, write.expireMillis, valueSerializer.serialize(write.redisValue));
+                }
+                if (write.message != null) {
+                    byte[] rawMessage = valueSerializer.serialize(write.message);
+                    messageSender.send(connection, rawMessage);
+                    write.metrics.messageSent(rawMessage.length);
+                }
+            }
+            return null;
+        });
+        long nanos = System.nanoTime() - start;
+        writes.stream()
+                .map(write -> write.metrics)
+                .distinct()
+                .forEach(metrics -> metrics.redisCall(CacheMetrics.RedisOperation.PIPELINE, nanos));
+    }
+
+}
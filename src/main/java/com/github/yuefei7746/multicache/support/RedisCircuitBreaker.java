@@ -0,0 +1,127 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Redis 调用的熔断器，同一个 {@link MultiCacheManager} 下的缓存共用
+ * <p>
+ * 连续失败或超过耗时阈值的调用达到次数后断开，断开期间缓存只使用本地缓存与加载函数，不读写 Redis、不发布消息。
+ * 断开一段时间后放行一次探测调用，成功则恢复并通知各缓存失效本地缓存，失败则继续断开。
+ *
+ * @author yuefei7746
+ */
+@Slf4j
+public final class RedisCircuitBreaker {
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 状态与断开的截止时刻一起替换，读到 OPEN 时截止时刻一定是这次断开的
+     */
+    private static final class Status {
+
+        private static final Status CLOSED = new Status(State.CLOSED, 0);
+
+        private final State state;
+
+        private final long openUntil;
+
+        private Status(State state, long openUntil) {
+            this.state = state;
+            this.openUntil = openUntil;
+        }
+
+    }
+
+    private final int failureThreshold;
+
+    private final long slowCallNanos;
+
+    private final long openNanos;
+
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.CLOSED);
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final List<Runnable> recoveryListeners = new CopyOnWriteArrayList<>();
+
+    public RedisCircuitBreaker(MultiCacheProperty.CircuitBreakerProperty property) {
+        this.failureThreshold = Math.max(1, property.getFailureThreshold());
+        this.slowCallNanos = property.getSlowCallThreshold().toNanos();
+        this.openNanos = property.getOpenDuration().toNanos();
+    }
+
+    /**
+     * @return 是否可以调用 Redis，断开的时间到期后只有一个调用者获得探测的机会
+     */
+    boolean tryAcquire() {
+        Status current = status.get();
+        if (current.state == State.CLOSED) {
+            return true;
+        }
+        return current.state == State.OPEN && System.nanoTime() - current.openUntil >= 0
+                && status.compareAndSet(current, new Status(State.HALF_OPEN, current.openUntil));
+    }
+
+    boolean isClosed() {
+        return status.get().state == State.CLOSED;
+    }
+
+    /**
+     * 调用成功，耗时超过阈值时按失败处理
+     */
+    void onSuccess(long nanos) {
+        if (slowCallNanos > 0 && nanos > slowCallNanos) {
+            onFailure();
+            return;
+        }
+        failures.set(0);
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN && status.compareAndSet(current, Status.CLOSED)) {
+            log.warn("redis recovered, close the circuit breaker");
+            recoveryListeners.forEach(Runnable::run);
+        }
+    }
+
+    void onFailure() {
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN && status.compareAndSet(current, open(System.nanoTime() + openNanos))) {
+            return;
+        }
+        if (failures.incrementAndGet() >= failureThreshold
+                && status.compareAndSet(Status.CLOSED, open(System.nanoTime() + openNanos))) {
+            log.warn("redis calls failed {} times in a row, open the circuit breaker for {} ms",
+                    failureThreshold, openNanos / 1_000_000);
+        }
+    }
+
+    /**
+     * 调用因为与 Redis 无关的原因失败，例如序列化异常，探测调用的结果无效，允许下一个调用者立即探测
+     */
+    void onIgnored() {
+        Status current = status.get();
+        if (current.state == State.HALF_OPEN) {
+            status.compareAndSet(current, open(System.nanoTime()));
+        }
+    }
+
+    private static Status open(long openUntil) {
+        return new Status(State.OPEN, openUntil);
+    }
+
+    /**
+     * 注册熔断恢复时的回调，在完成探测的线程中调用
+     */
+    void addRecoveryListener(Runnable listener) {
+        recoveryListeners.add(listener);
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.github.yuefei7746.multicache.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 通过 SCAN 游标按前缀删除 Redis 中的 key
+ * <p>
+ * 每次 SCAN 只遍历一小段 key 空间，凑够一批后用一条 UNLINK 删除，value 的回收交给 Redis 的后台线程，
+ * 不会像 KEYS 或大批量 DEL 那样长时间阻塞 Redis。
+ *
+ * @author yuefei7746
+ */
+@Slf4j
+final class RedisKeyCleaner {
+
+    private RedisKeyCleaner() {
+    }
+
+    /**
+     * @param keyPrefix 未转义的 key 前缀，其中的通配符会按字面匹配
+     * @param batchSize 每次 SCAN 的 COUNT 以及每条 UNLINK 包含的 key 数
+     * @return 删除的 key 数
+     */
+    static long unlinkByPrefix(RedisTemplate<Object, Object> redisTemplate, String keyPrefix, int batchSize) {
+        ScanOptions options = ScanOptions.scanOptions().match(escapeGlob(keyPrefix) + '*').count(batchSize).build();
+
+        Long unlinked = redisTemplate.execute((RedisCallback<Long>) connection -> {
+            long count = 0;
+            List<byte[]> batch = new ArrayList<>(batchSize);
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    batch.add(cursor.next());
+                    if (batch.size() >= batchSize) {
+                        count += unlink(connection, batch);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("failed to close the scan cursor of {}", keyPrefix, e);
+            }
+            return count + unlink(connection, batch);
+        });
+        return unlinked == null ? 0 : unlinked;
+    }
+
+    private static long unlink(RedisConnection connection, List<byte[]> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        Long count = connection.unlink(batch.toArray(new byte[0][]));
+        batch.clear();
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 转义 glob 中的特殊字符，使前缀按字面匹配
+     */
+    static String escapeGlob(String keyPrefix) {
+        StringBuilder escaped = new StringBuilder(keyPrefix.length() + 8);
+        for (int i = 0; i < keyPrefix.length(); i++) {
+            char c = keyPrefix.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.github.yuefei7746.multicache.support;
+
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.format.support.DefaultFormattingConversionService;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.function.Function;
+
+/**
+ * 把缓存 key 转换为 Redis key 中的字符串，转换结果与 RedisCache#convertKey 一致
+ * <p>
+ * 每个 key 类型第一次出现时确定转换方式并缓存在 {@link ClassValue} 中，之后的转换不再查找转换器或反射查找 toString：
+ * String 直接使用，基本类型的包装类与 SimpleKey 调用 toString，集合与数组逐个元素转换后以逗号拼接，
+ * 其他可以由 ConversionService 转换的类型使用预先解析好的 TypeDescriptor 转换，否则使用自身声明的 toString。
+ *
+ * @author yuefei7746
+ */
+final class RedisKeyEncoder {
+
+    private static final TypeDescriptor STRING_TYPE = TypeDescriptor.valueOf(String.class);
+
+    private static final RedisKeyEncoder INSTANCE = new RedisKeyEncoder(createConversionService());
+
+    private final ConversionService conversionService;
+
+    private final ClassValue<Encoder> encoders = new ClassValue<Encoder>() {
+        @Override
+        protected Encoder computeValue(Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    private RedisKeyEncoder(ConversionService conversionService) {
+        this.conversionService = conversionService;
+    }
+
+    static RedisKeyEncoder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @see RedisCacheConfiguration#defaultCacheConfig(ClassLoader)
+     */
+    private static ConversionService createConversionService() {
+        DefaultFormattingConversionService conversionService = new DefaultFormattingConversionService();
+        conversionService.addConverter(String.class, byte[].class, source -> source.getBytes(StandardCharsets.UTF_8));
+        conversionService.addConverter(SimpleKey.class, String.class, SimpleKey::toString);
+        return conversionService;
+    }
+
+    String encode(Object key) {
+        return encoders.get(key.getClass()).function.apply(key);
+    }
+
+    private Encoder resolve(Class<?> type) {
+        if (type == String.class) {
+            return new Encoder(true, key -> (String) key);
+        }
+        if (isBoxedPrimitive(type) || type == SimpleKey.class) {
+            // 与 ConversionService 中注册的 ObjectToStringConverter 及 SimpleKey 转换器的结果相同
+            return new Encoder(true, Object::toString);
+        }
+        if (type.isArray()) {
+            return new Encoder(true, key -> encodeCollection(Arrays.asList(ObjectUtils.toObjectArray(key))));
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            return new Encoder(true, key -> encodeCollection((Collection<?>) key));
+        }
+
+        TypeDescriptor source = TypeDescriptor.valueOf(type);
+        if (conversionService.canConvert(source, STRING_TYPE)) {
+            return new Encoder(true,
+                    key -> (String) Objects.requireNonNull(conversionService.convert(key, source, STRING_TYPE)));
+        }
+
+        Method toString = ReflectionUtils.findMethod(type, "toString");
+        if (toString != null && !Object.class.equals(toString.getDeclaringClass())) {
+            return new Encoder(false, Object::toString);
+        }
+        return new Encoder(false, key -> {
+            throw new IllegalStateException(String.format(
+                    "Cannot convert cache key %s to String. Please register a suitable Converter via 'RedisCacheConfiguration.configureKeyConverters(...)' or override '%s.toString()'.",
+                    source, type.getSimpleName()));
+        });
+    }
+
+    private static boolean isBoxedPrimitive(Class<?> type) {
+        return type == Long.class || type == Integer.class || type == Short.class || type == Byte.class
+                || type == Boolean.class || type == Character.class || type == Double.class || type == Float.class;
+    }
+
+    /**
+     * 元素都能由 ConversionService 转换时与 CollectionToStringConverter 相同，以逗号拼接；
+     * 否则与 RedisCache#convertCollectionLikeOrMapKey 相同，以方括号包裹
+     */
+    private String encodeCollection(Collection<?> collection) {
+        if (collection.isEmpty()) {
+            return "";
+        }
+        boolean convertible = true;
+        for (Object element : collection) {
+            if (element != null && !encoders.get(element.getClass()).convertible) {
+                convertible = false;
+                break;
+            }
+        }
+
+        StringJoiner joiner = convertible ? new StringJoiner(",") : new StringJoiner(",", "[", "]");
+        for (Object element : collection) {
+            joiner.add(element == null ? "null" : encode(element));
+        }
+        return joiner.toString();
+    }
+
+    private static final class Encoder {
+
+        /**
+         * 是否能由 ConversionService 转换
+         */
+        private final boolean convertible;
+
+        private final Function<Object, String> function;
+
+        private Encoder(boolean convertible, Function<Object, String> function) {
+            this.convertible = convertible;
+            this.function = function;
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 基于 Redis 租约的集群内加载合并
+ * <p>
+ * 同一个 key 同时只有持有租约的节点调用加载函数，并且只有租约仍然属于自己时才会把结果写入 Redis，
+ * 避免租约过期后迟到的旧值覆盖新值。其他节点轮询 Redis 等待结果，租约被释放或过期却仍没有值时重新抢占。
+ * <p>
+ * 租约 key 与缓存 key 通过 hash tag 分配到同一个槽，Redis Cluster 中脚本与 MGET 可以同时访问两者。
+ *
+ * @author yuefei7746
+ */
+@Slf4j
+final class RedisSingleFlight {
+
+    private static final String LEASE_PREFIX = "lease::";
+
+    private static final String NODE_ID = UUID.randomUUID().toString();
+
+    private static final AtomicLong TOKEN_SEQUENCE = new AtomicLong();
+
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    /**
+     * KEYS[1] 租约，KEYS[2] 缓存；ARGV[1] 租约令牌，ARGV[2] 缓存值，ARGV[3] 过期毫秒数
+     */
+    private static final byte[] COMMIT_SCRIPT = ("if redis.call('GET', KEYS[1]) == ARGV[1] then "
+            + "redis.call('SET', KEYS[2], ARGV[2], 'PX', ARGV[3]) "
+            + "redis.call('DEL', KEYS[1]) "
+            + "return 1 end "
+            + "return 0").getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] RELEASE_SCRIPT = ("if redis.call('GET', KEYS[1]) == ARGV[1] then "
+            + "return redis.call('DEL', KEYS[1]) end "
+            + "return 0").getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<Object, Object> redisTemplate;
+
+    private final RedisSerializer<Object> keySerializer;
+
+    private final RedisSerializer<Object> valueSerializer;
+
+    private final long leaseMillis;
+
+    private final long waitTimeoutNanos;
+
+    private final long pollIntervalMillis;
+
+    /**
+     * 空值标记的过期毫秒数，为 0 时空值不写入 Redis
+     */
+    private final long nullValueExpireMillis;
+
+    @SuppressWarnings("unchecked")
+    RedisSingleFlight(RedisTemplate<Object, Object> redisTemplate, MultiCacheProperty.SingleFlightProperty property,
+                      long nullValueExpireMillis) {
+        this.redisTemplate = redisTemplate;
+        this.keySerializer = (RedisSerializer<Object>) redisTemplate.getKeySerializer();
+        this.valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        this.leaseMillis = property.getLeaseTime().toMillis();
+        this.waitTimeoutNanos = property.getWaitTimeout().toNanos();
+        this.pollIntervalMillis = Math.max(1, property.getPollInterval().toMillis());
+        this.nullValueExpireMillis = nullValueExpireMillis;
+    }
+
+    /**
+     * 加载 Redis 中不存在的值
+     *
+     * @param loader   返回待缓存的值，{@link NullValue} 以空值标记写入 Redis，没有开启空值标记时不写入
+     * @param onLoaded 当前节点持有租约调用了 loader 时，在写入 Redis 之后回调
+     * @return 当前节点加载的值，或者等到的其他节点写入 Redis 的值；等待超时或者无法生成同槽的租约 key 时返回 null，
+     * 由调用方自行加载并写入 Redis
+     */
+    @Nullable
+    Object load(String redisKey, long expireMillis, Callable<Object> loader, Consumer<Object> onLoaded)
+            throws Exception {
+        String leaseKey = leaseKey(redisKey);
+        if (leaseKey == null) {
+            return null;
+        }
+        byte[] rawKey = keySerializer.serialize(redisKey);
+        byte[] rawLeaseKey = keySerializer.serialize(leaseKey);
+        long deadline = System.nanoTime() + waitTimeoutNanos;
+
+        while (System.nanoTime() - deadline < 0) {
+            byte[] token = nextToken();
+            if (tryAcquire(rawLeaseKey, token)) {
+                return loadWithLease(redisKey, rawKey, rawLeaseKey, token, expireMillis, loader, onLoaded);
+            }
+            Object storeValue = awaitValue(rawKey, rawLeaseKey, deadline);
+            if (storeValue != null) {
+                return storeValue;
+            }
+            // 租约已释放但仍然没有值：持有者加载失败、加载结果为不写入的空值或者已经宕机，重新抢占租约
+        }
+
+        log.warn("timed out waiting for another node to load {}, load it locally", redisKey);
+        return null;
+    }
+
+    /**
+     * 缓存 key 中已有 hash tag 时直接加前缀，否则把整个缓存 key 作为 hash tag，两种情况下都与缓存 key 在同一个槽
+     *
+     * @return 缓存 key 没有 hash tag 却含有 '}' 时无法作为 hash tag，返回 null
+     */
+    @Nullable
+    private static String leaseKey(String redisKey) {
+        int start = redisKey.indexOf('{');
+        if (start >= 0) {
+            int end = redisKey.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return LEASE_PREFIX + redisKey;
+            }
+        }
+        return redisKey.indexOf('}') >= 0 ? null : LEASE_PREFIX + '{' + redisKey + '}';
+    }
+
+    private Object loadWithLease(String redisKey, byte[] rawKey, byte[] rawLeaseKey, byte[] token,
+                                 long expireMillis, Callable<Object> loader, Consumer<Object> onLoaded)
+            throws Exception {
+        Object storeValue;
+        try {
+            storeValue = loader.call();
+        } catch (Exception | Error e) {
+            release(rawLeaseKey, token);
+            throw e;
+        }
+
+        boolean nullValue = storeValue == NullValue.INSTANCE;
+        if (nullValue && nullValueExpireMillis == 0) {
+            release(rawLeaseKey, token);
+        } else if (!commit(rawLeaseKey, rawKey, token, nullValue ? EMPTY_VALUE : valueSerializer.serialize(storeValue),
+                nullValue ? nullValueExpireMillis : expireMillis)) {
+            log.warn("the lease of {} expired before the value was loaded, skip writing it to Redis", redisKey);
+        }
+        onLoaded.accept(storeValue);
+        return storeValue;
+    }
+
+    @Nullable
+    private Object awaitValue(byte[] rawKey, byte[] rawLeaseKey, long deadline) throws InterruptedException {
+        while (true) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return null;
+            }
+            Thread.sleep(Math.min(pollIntervalMillis, remainingMillis));
+
+            List<byte[]> values = redisTemplate.execute(
+                    (RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKey, rawLeaseKey));
+            if (values == null) {
+                continue;
+            }
+            if (values.get(0) != null) {
+                return values.get(0).length == 0 ? NullValue.INSTANCE : valueSerializer.deserialize(values.get(0));
+            }
+            if (values.get(1) == null) {
+                return null;
+            }
+        }
+    }
+
+    private boolean tryAcquire(byte[] rawLeaseKey, byte[] token) {
+        Boolean acquired = redisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(
+                rawLeaseKey, token, Expiration.milliseconds(leaseMillis), RedisStringCommands.SetOption.ifAbsent()));
+        return Boolean.TRUE.equals(acquired);
+    }
+
+    private boolean commit(byte[] rawLeaseKey, byte[] rawKey, byte[] token, byte[] rawValue, long expireMillis) {
+        byte[] rawExpire = String.valueOf(expireMillis).getBytes(StandardCharsets.UTF_8);
+        Long committed = redisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                COMMIT_SCRIPT, ReturnType.INTEGER, 2, rawLeaseKey, rawKey, token, rawValue, rawExpire));
+        return committed != null && committed == 1;
+    }
+
+    private void release(byte[] rawLeaseKey, byte[] token) {
+        try {
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(
+                    RELEASE_SCRIPT, ReturnType.INTEGER, 1, rawLeaseKey, token));
+        } catch (RuntimeException e) {
+            log.warn("failed to release the lease, it will expire after {} ms", leaseMillis, e);
+        }
+    }
+
+    private static byte[] nextToken() {
+        return (NODE_ID + ':' + TOKEN_SEQUENCE.incrementAndGet()).getBytes(StandardCharsets.UTF_8);
+    }
+
+}
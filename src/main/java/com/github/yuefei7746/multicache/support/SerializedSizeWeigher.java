@@ -0,0 +1,31 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 以缓存值序列化后的字节数作为权重，与写入 Redis 时使用相同的序列化器
+ * <p>
+ * 每次写入本地缓存都会额外序列化一次，只适合按字节限制本地缓存大小、且值的大小差别较大的缓存。
+ *
+ * @author yuefei7746
+ */
+final class SerializedSizeWeigher implements Weigher<Object, Object> {
+
+    private final RedisSerializer<Object> valueSerializer;
+
+    SerializedSizeWeigher(RedisSerializer<Object> valueSerializer) {
+        this.valueSerializer = valueSerializer;
+    }
+
+    @Override
+    public int weigh(Object key, Object storeValue) {
+        if (storeValue == NullValue.INSTANCE) {
+            return 1;
+        }
+        byte[] bytes = valueSerializer.serialize(storeValue);
+        return bytes == null ? 1 : Math.max(1, bytes.length);
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从 Redis Stream 中按顺序读取失效消息，交给 {@link MultiCacheManager} 处理
+ * <p>
+ * 后台线程记录最后读到的消息 ID，每次 XREAD BLOCK 从该 ID 之后继续读取，断开重连或停顿之后会补读期间错过的消息。
+ * Stream 按 maxLength 裁剪，如果最后读到的消息已经被裁剪掉，无法确定错过了哪些消息，此时清空全部本地缓存。
+ * 启动时从 Stream 的末尾开始读取，本地缓存此时还是空的。
+ * <p>
+ * 读取线程一直持有同一个连接，Lettuce 在该连接上执行 XREAD BLOCK 时复用同一个独占连接，读取失败后才重新获取。
+ * 只支持 {@link LettuceConnectionFactory}。
+ *
+ * @author yuefei7746
+ */
+@Slf4j
+public class StreamInvalidationListener implements InitializingBean, DisposableBean {
+
+    private static final long RETRY_INTERVAL_MILLIS = 1000;
+
+    private final RedisTemplate<Object, Object> redisTemplate;
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    private final MultiCacheManager multiCacheManager;
+
+    private final byte[] rawStreamKey;
+
+    private final long maxLength;
+
+    private final StreamReadOptions readOptions;
+
+    private final int batchSize;
+
+    /**
+     * 两次读取之间超过该时间时检查是否错过了已被裁剪的消息
+     */
+    private final long pauseNanos;
+
+    private final Thread reader;
+
+    private volatile boolean running = true;
+
+    /**
+     * 最后读到的消息 ID，为 null 时还没有确定读取的起点，只在读取线程中访问
+     */
+    @Nullable
+    private RecordId lastId;
+
+    /**
+     * 读取线程持有的连接，为 null 时下一次读取前重新获取，只在读取线程中访问
+     */
+    @Nullable
+    private RedisConnection connection;
+
+    public StreamInvalidationListener(RedisTemplate<Object, Object> redisTemplate,
+                                      LettuceConnectionFactory connectionFactory, MultiCacheManager multiCacheManager,
+                                      MultiCacheProperty.RedisProperty redisProperty) {
+        MultiCacheProperty.StreamProperty streamProperty = redisProperty.getStream();
+        this.redisTemplate = redisTemplate;
+        this.connectionFactory = connectionFactory;
+        this.multiCacheManager = multiCacheManager;
+        this.rawStreamKey = redisTemplate.getStringSerializer().serialize(streamProperty.getKey());
+        this.maxLength = streamProperty.getMaxLength();
+        this.batchSize = Math.max(1, streamProperty.getBatchSize());
+        Duration blockTimeout = streamProperty.getBlockTimeout();
+        this.readOptions = StreamReadOptions.empty().block(blockTimeout).count(batchSize);
+        this.pauseNanos = blockTimeout.toNanos();
+
+        this.reader = new Thread(this::readLoop, "multi-cache-stream");
+        this.reader.setDaemon(true);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        reader.start();
+    }
+
+    private void readLoop() {
+        try {
+            doReadLoop();
+        } finally {
+            closeConnection();
+        }
+    }
+
+    private void doReadLoop() {
+        boolean recovering = false;
+        boolean checkGap = false;
+        long lastReadAt = System.nanoTime();
+        while (running) {
+            try {
+                if (lastId == null) {
+                    lastId = latestId();
+                    if (recovering) {
+                        // 启动后第一次读取失败，这期间可能已经读入了本地缓存
+                        multiCacheManager.invalidateLocalCaches();
+                    }
+                } else if (recovering || checkGap || System.nanoTime() - lastReadAt > pauseNanos) {
+                    checkGap();
+                }
+                recovering = false;
+
+                List<ByteRecord> records = read(lastId);
+                lastReadAt = System.nanoTime();
+                for (ByteRecord record : records) {
+                    try {
+                        handle(record);
+                    } catch (RuntimeException e) {
+                        log.error("failed to handle the stream message {}", record.getId(), e);
+                    }
+                    lastId = record.getId();
+                }
+                // 读满一批时可能落后较多，下一次读取前确认没有错过被裁剪的消息
+                checkGap = records.size() >= batchSize;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                if (!recovering) {
+                    log.warn("failed to read the invalidation stream, retry in {} ms", RETRY_INTERVAL_MILLIS, e);
+                }
+                recovering = true;
+                closeConnection();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_INTERVAL_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Stream 中最新的消息 ID，Stream 不存在时从头读取
+     */
+    private RecordId latestId() {
+        List<ByteRecord> latest = connection().streamCommands().xRevRange(rawStreamKey, Range.unbounded(),
+                RedisZSetCommands.Limit.limit().count(1));
+        return latest == null || latest.isEmpty() ? RecordId.of(0, 0) : latest.get(0).getId();
+    }
+
+    private List<ByteRecord> read(RecordId from) {
+        List<ByteRecord> records = connection().streamCommands()
+                .xRead(readOptions, StreamOffset.create(rawStreamKey, ReadOffset.from(from)));
+        return records == null ? Collections.emptyList() : records;
+    }
+
+    /**
+     * Stream 没有达到 maxLength 时从未被裁剪过，否则最旧的消息比最后读到的消息更新时，两者之间的消息可能已被裁剪，
+     * 保守地清空全部本地缓存，然后继续从 Stream 中剩余的消息开始读取
+     */
+    private void checkGap() {
+        RecordId from = lastId;
+        Long length = connection().streamCommands().xLen(rawStreamKey);
+        if (from == null || length == null || length < maxLength) {
+            return;
+        }
+        List<ByteRecord> oldest = connection().streamCommands().xRange(rawStreamKey, Range.unbounded(),
+                RedisZSetCommands.Limit.limit().count(1));
+        if (oldest != null && !oldest.isEmpty() && compare(oldest.get(0).getId(), from) > 0) {
+            log.warn("missed invalidation messages trimmed from the stream after {}, clear all local cache", from);
+            multiCacheManager.invalidateLocalCaches();
+        }
+    }
+
+    private RedisConnection connection() {
+        RedisConnection connection = this.connection;
+        if (connection == null) {
+            connection = connectionFactory.getConnection();
+            this.connection = connection;
+        }
+        return connection;
+    }
+
+    private void closeConnection() {
+        RedisConnection connection = this.connection;
+        this.connection = null;
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (RuntimeException e) {
+            log.debug("failed to close the stream connection", e);
+        }
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int result = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return result != 0 ? result : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    private void handle(ByteRecord record) {
+        for (Map.Entry<byte[], byte[]> field : record.getValue().entrySet()) {
+            if (!Arrays.equals(field.getKey(), MessageSender.MESSAGE_FIELD)) {
+                continue;
+            }
+            byte[] body = field.getValue();
+            TopicMessage msg = (TopicMessage) redisTemplate.getValueSerializer().deserialize(body);
+            if (msg != null) {
+                log.debug("receive a redis stream message, clear local cache, the cacheName is {}, the key is {}",
+                        msg.getCacheName(), msg.getKey());
+                multiCacheManager.dispatchMessage(msg, body.length);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        reader.interrupt();
+    }
+
+}
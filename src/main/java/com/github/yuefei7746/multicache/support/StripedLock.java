@@ -0,0 +1,87 @@
+package com.github.yuefei7746.multicache.support;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 按 key 分段的读写锁
+ * <p>
+ * 同一个 key 总是落在同一个分段上，保证该 key 的 L1、L2 与 topic 更新顺序一致；
+ * 不同分段之间互不阻塞，一次缓慢的 Redis 写入只会影响同分段的 key。
+ *
+ * @author yuefei7746
+ */
+final class StripedLock {
+
+    private static final int MAX_STRIPES = 1 << 16;
+
+    private final ReadWriteLock[] stripes;
+
+    private final int mask;
+
+    StripedLock(int stripes) {
+        int size = ceilingPowerOfTwo(stripes);
+        this.stripes = new ReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        if (x <= 1) {
+            return 1;
+        }
+        if (x >= MAX_STRIPES) {
+            return MAX_STRIPES;
+        }
+        return Integer.highestOneBit(x - 1) << 1;
+    }
+
+    /**
+     * 获取 key 所在分段的读写锁
+     */
+    ReadWriteLock get(Object key) {
+        return stripes[indexOf(key)];
+    }
+
+    /**
+     * 获取一批 key 所在分段的读写锁，按下标排序且不重复，依次加锁可以避免与 {@link #lockAll()} 死锁
+     */
+    List<ReadWriteLock> getAll(Collection<?> keys) {
+        BitSet indexes = new BitSet(stripes.length);
+        for (Object key : keys) {
+            indexes.set(indexOf(key));
+        }
+        List<ReadWriteLock> locks = new ArrayList<>(indexes.cardinality());
+        for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+            locks.add(stripes[i]);
+        }
+        return locks;
+    }
+
+    private int indexOf(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 按下标顺序锁定全部分段的写锁，用于 clear 这类作用于整个缓存的操作
+     */
+    void lockAll() {
+        for (ReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].writeLock().unlock();
+        }
+    }
+
+}
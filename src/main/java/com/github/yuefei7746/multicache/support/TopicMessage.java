@@ -8,6 +8,11 @@ import org.springframework.lang.Nullable;
 import java.io.Serializable;
 
 /**
+ * topic 与 Stream 中的失效消息
+ * <p>
+ * value 是预先序列化的字节数组，与 value 为对象的旧格式互不兼容，从旧版本滚动升级时需要为新版本配置新的 topic 或 Stream key，
+ * 新旧节点在升级期间互相收不到对方的消息，本地缓存只能依靠过期时间收敛。
+ *
  * @author yuefei7746
  */
 @Data
@@ -22,15 +27,33 @@ public class TopicMessage implements Serializable {
     @Nullable
     private Object key;
 
+    /**
+     * put 时广播的值，预先使用 Redis 的 value 序列化器序列化，接收方确认不是自己发布的消息后才反序列化
+     */
     @Nullable
-    private Object value;
-
-    public static TopicMessage create(String cacheName, @Nullable Object key) {
-        return new TopicMessage(cacheName, key, null);
+    private byte[] value;
+
+    /**
+     * 发布消息的节点 ID
+     *
+     * @see MessageOrigin
+     */
+    private String origin;
+
+    /**
+     * 这次写入的版本号，为 0 时表示没有开启版本号
+     *
+     * @see VersionedValue
+     */
+    private long version;
+
+    public static TopicMessage create(MessageOrigin origin, String cacheName, @Nullable Object key, long version) {
+        return new TopicMessage(cacheName, key, null, origin.getId(), version);
     }
 
-    public static TopicMessage create(String cacheName, @Nullable Object key, Object value) {
-        return new TopicMessage(cacheName, key, value);
+    public static TopicMessage create(MessageOrigin origin, String cacheName, @Nullable Object key, byte[] value,
+                                      long version) {
+        return new TopicMessage(cacheName, key, value, origin.getId(), version);
     }
 
 }
@@ -0,0 +1,54 @@
+package com.github.yuefei7746.multicache.support;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * 客户端缓存模式下本地缓存使用的 key
+ * <p>
+ * 相等性只取决于 Redis key，收到 Redis 推送的失效消息时可以直接按 Redis key 失效本地缓存，同时保留原始 key 供刷新时使用。
+ *
+ * @author yuefei7746
+ */
+final class TrackedKey {
+
+    private final String redisKey;
+
+    /**
+     * 原始的缓存 key，只用于按 Redis key 查找时为 null
+     */
+    @Nullable
+    private final Object key;
+
+    TrackedKey(String redisKey, @Nullable Object key) {
+        this.redisKey = redisKey;
+        this.key = key;
+    }
+
+    String getRedisKey() {
+        return redisKey;
+    }
+
+    @Nullable
+    Object getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof TrackedKey && redisKey.equals(((TrackedKey) o).redisKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return redisKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return redisKey;
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.github.yuefei7746.multicache.support;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 开启版本号的缓存在 Redis 与本地缓存中保存的值，附带写入时生成的版本号
+ *
+ * @author yuefei7746
+ * @see HybridLogicalClock
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VersionedValue implements Serializable {
+
+    private static final long serialVersionUID = 1658307402786013471L;
+
+    private Object value;
+
+    private long version;
+
+}
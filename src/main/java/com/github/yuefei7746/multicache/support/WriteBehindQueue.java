@@ -0,0 +1,269 @@
+package com.github.yuefei7746.multicache.support;
+
+import com.github.yuefei7746.multicache.MultiCacheProperty;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.support.NullValue;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Redis 异步批量写回队列
+ * <p>
+ * 同一个 Redis key 在队列中只保留最后一次写入，后台线程每凑满 batchSize 个操作或等待满 flushInterval，
+ * 就把 SET/DEL 与对应的 topic 通知放进同一次 pipeline 提交。队列满时写入线程阻塞等待，关闭时会写完队列中剩余的操作。
+ * <p>
+ * 提交失败的操作重新排到队尾，没有被同一 key 之后的写入覆盖时最多尝试 3 次，
+ * 仍然失败时放弃并调用 {@link PipelinedWrite#onDropped}，由写入方失效本地缓存。
+ *
+ * @author yuefei7746
+ */
+@Slf4j
+public class WriteBehindQueue implements AutoCloseable {
+
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final long RETRY_INTERVAL_MILLIS = 100;
+
+    private final RedisTemplate<Object, Object> redisTemplate;
+
+    private final MessageSender messageSender;
+
+    private final int batchSize;
+
+    private final long flushIntervalNanos;
+
+    private final int queueCapacity;
+
+    private final Map<String, PipelinedWrite> pending = new LinkedHashMap<>();
+
+    /**
+     * 已进入队列但还没有写完的操作，包括正在提交的一批，按 Redis key 只保留最后一次写入
+     */
+    private final Map<String, PipelinedWrite> unflushed = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    public WriteBehindQueue(RedisTemplate<Object, Object> redisTemplate, MultiCacheProperty.RedisProperty redisProperty) {
+        MultiCacheProperty.WriteBehindProperty writeBehind = redisProperty.getWriteBehind();
+        this.redisTemplate = redisTemplate;
+        this.messageSender = new MessageSender(redisTemplate, redisProperty);
+        this.batchSize = Math.max(1, writeBehind.getBatchSize());
+        this.flushIntervalNanos = writeBehind.getFlushInterval().toNanos();
+        this.queueCapacity = Math.max(batchSize, writeBehind.getQueueCapacity());
+
+        this.flusher = new Thread(this::flushLoop, "multi-cache-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * 丢弃指定前缀下还未写回的操作，用于整个缓存被清空时
+     */
+    public void discard(String keyPrefix) {
+        lock.lock();
+        try {
+            pending.keySet().removeIf(redisKey -> redisKey.startsWith(keyPrefix));
+            unflushed.keySet().removeIf(redisKey -> redisKey.startsWith(keyPrefix));
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 读取 Redis 之前先检查，队列中还有该 key 的写入时 Redis 中的值已经过时
+     *
+     * @return 该 key 最后一次还没有写完的操作，没有时返回 null
+     */
+    @Nullable
+    PipelinedWrite getUnflushed(String redisKey) {
+        return unflushed.get(redisKey);
+    }
+
+    /**
+     * 写入 Redis 并通知其他节点，值为 {@link NullValue} 时写入空值标记，expireMillis 为 0 时只发送通知，message 为 null 时不发送通知
+     */
+    void offer(PipelinedWrite write) {
+        lock.lock();
+        try {
+            if (enqueue(write)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 队列已关闭，直接在调用线程写入，失败时不再重试
+        unflushed.put(write.redisKey, write);
+        flush(Collections.singletonList(write));
+    }
+
+    /**
+     * @return 队列已关闭时返回 false
+     */
+    private boolean enqueue(PipelinedWrite write) {
+        boolean interrupted = false;
+        while (running && pending.size() >= queueCapacity && !pending.containsKey(write.redisKey)) {
+            try {
+                notFull.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (!running) {
+            return false;
+        }
+        // 先移除再放入，让合并后的写入排到队尾，保证同一 key 的操作不会先于更早的其他操作提交
+        pending.remove(write.redisKey);
+        pending.put(write.redisKey, write);
+        unflushed.put(write.redisKey, write);
+        if (pending.size() == 1 || pending.size() >= batchSize) {
+            notEmpty.signal();
+        }
+        return true;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<PipelinedWrite> batch = nextBatch();
+            if (batch.isEmpty()) {
+                if (!running) {
+                    return;
+                }
+                continue;
+            }
+            if (!flush(batch) && running) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(RETRY_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+        }
+    }
+
+    private List<PipelinedWrite> nextBatch() {
+        lock.lock();
+        try {
+            while (running && pending.isEmpty()) {
+                notEmpty.await();
+            }
+            long nanos = flushIntervalNanos;
+            while (running && pending.size() < batchSize && nanos > 0) {
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            List<PipelinedWrite> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+            Iterator<PipelinedWrite> it = pending.values().iterator();
+            while (it.hasNext() && batch.size() < batchSize) {
+                batch.add(it.next());
+                it.remove();
+            }
+            notFull.signalAll();
+            return batch;
+        } catch (InterruptedException e) {
+            running = false;
+            return new ArrayList<>(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 是否提交成功
+     */
+    private boolean flush(List<PipelinedWrite> batch) {
+        try {
+            PipelinedWrite.execute(redisTemplate, messageSender, batch);
+        } catch (RuntimeException e) {
+            retryOrDrop(batch, e);
+            return false;
+        }
+        // 之后合并进来的写入还没有提交，保留
+        batch.forEach(write -> unflushed.remove(write.redisKey, write));
+        return true;
+    }
+
+    /**
+     * 已被之后的写入覆盖或被 discard 丢弃的操作不再处理，其余的重新入队，不受队列容量限制，
+     * 达到最大尝试次数或队列已关闭时放弃
+     */
+    private void retryOrDrop(List<PipelinedWrite> batch, RuntimeException e) {
+        List<PipelinedWrite> dropped = new ArrayList<>();
+        int retried = 0;
+        lock.lock();
+        try {
+            for (PipelinedWrite write : batch) {
+                if (unflushed.get(write.redisKey) != write) {
+                    continue;
+                }
+                if (running && ++write.failures < MAX_ATTEMPTS) {
+                    pending.put(write.redisKey, write);
+                    retried++;
+                } else {
+                    unflushed.remove(write.redisKey, write);
+                    dropped.add(write);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.error("write behind flush failed, {} operations retried, {} operations dropped",
+                retried, dropped.size(), e);
+        // 不持有队列的锁，回调中可能需要等待写入线程
+        for (PipelinedWrite write : dropped) {
+            if (write.onDropped != null) {
+                write.onDropped.run();
+            }
+        }
+    }
+
+    /**
+     * 停止接收新的异步写入，并等待队列中剩余的操作写完
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            log.warn("write behind queue was not drained within {} ms, {} operations pending",
+                    SHUTDOWN_TIMEOUT_MILLIS, pending.size());
+        }
+    }
+
+}